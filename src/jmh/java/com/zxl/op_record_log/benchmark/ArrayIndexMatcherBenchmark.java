@@ -0,0 +1,65 @@
+package com.zxl.op_record_log.benchmark;
+
+import com.zxl.op_record_log.ArrayExpValue;
+import com.zxl.op_record_log.ArrayIndexMatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 数组下标匹配在长列表上的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArrayIndexMatcherBenchmark {
+
+    @Param({"*", "1,3-5,<10,>=20", "0,2,4,6,8,10,12,14,16,18,100-200,>=5000"})
+    public String exps;
+
+    /**
+     * 列表长度
+     */
+    @Param({"10000"})
+    public int length;
+
+    private List<ArrayExpValue> arrayExps;
+
+    private ArrayIndexMatcher matcher;
+
+
+    @Setup
+    public void setup(){
+        arrayExps = new ArrayList<>();
+        for(String exp : exps.split(",")){
+            arrayExps.add(ArrayExpValue.initByExpStr(exp));
+        }
+        matcher = ArrayIndexMatcher.compile(arrayExps);
+    }
+
+
+    /**
+     * 遍历整个列表, 返回匹配的元素个数
+     */
+    @Benchmark
+    public int matchList(){
+        int count = 0;
+        for(int i=0;i<length;i++){
+            if(matcher.matches(i)){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public ArrayIndexMatcher compile(){
+        return ArrayIndexMatcher.compile(arrayExps);
+    }
+
+}
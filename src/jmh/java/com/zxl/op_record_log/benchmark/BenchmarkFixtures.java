@@ -0,0 +1,146 @@
+package com.zxl.op_record_log.benchmark;
+
+import com.zxl.op_record_log.DesensitizationLevel;
+import com.zxl.op_record_log.OpRecordAnnotation;
+import lombok.Data;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 基准测试使用的固定数据, 保证不同版本之间的测试结果可以比较
+ */
+public final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+
+    @Data
+    public static class QueryDto {
+        private String keyword;
+        private String password;
+        private List<String> idCards;
+        private int pageNo;
+        private int pageSize;
+    }
+
+    @Data
+    public static class UserDto {
+        private long id;
+        private String name;
+        private String phone;
+        private String idCard;
+        private AddressDto address;
+        private Date createTime;
+    }
+
+    @Data
+    public static class AddressDto {
+        private String province;
+        private String city;
+        private String detail;
+    }
+
+    @Data
+    public static class PageResult {
+        private int code;
+        private String msg;
+        private long total;
+        private List<UserDto> data;
+    }
+
+
+    /**
+     * 被注解的方法, 只用于提供Method和OpRecordAnnotation
+     */
+    public static class FixtureController {
+
+        @OpRecordAnnotation(reqDtLevel = DesensitizationLevel.NO, respDtLevel = DesensitizationLevel.NO)
+        public PageResult queryNo(QueryDto query, String token){
+            return null;
+        }
+
+        @OpRecordAnnotation(reqDtLevel = DesensitizationLevel.ALL, respDtLevel = DesensitizationLevel.ALL)
+        public PageResult queryAll(QueryDto query, String token){
+            return null;
+        }
+
+        @OpRecordAnnotation(reqDtLevel = DesensitizationLevel.PART,
+                reqDtFields = {"query.password","query.idCards[*]","token"},
+                respDtLevel = DesensitizationLevel.PART,
+                respDtFields = {"data[*].phone","data[<10].idCard","data[*].address.detail"})
+        public PageResult queryPart(QueryDto query, String token){
+            return null;
+        }
+    }
+
+
+    public static Method method(DesensitizationLevel level){
+        String name;
+        switch (level){
+            case ALL:
+                name = "queryAll";
+                break;
+            case PART:
+                name = "queryPart";
+                break;
+            default:
+                name = "queryNo";
+        }
+        try {
+            return FixtureController.class.getMethod(name, QueryDto.class, String.class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    public static QueryDto query(int size){
+        QueryDto query = new QueryDto();
+        query.setKeyword("keyword");
+        query.setPassword("p@ssw0rd");
+        List<String> idCards = new ArrayList<>(size);
+        for(int i=0;i<size;i++){
+            idCards.add("11010119900101" + String.format("%04d", i % 10000));
+        }
+        query.setIdCards(idCards);
+        query.setPageNo(1);
+        query.setPageSize(size);
+        return query;
+    }
+
+
+    public static PageResult pageResult(int size){
+        List<UserDto> users = new ArrayList<>(size);
+        for(int i=0;i<size;i++){
+            users.add(user(i));
+        }
+        PageResult result = new PageResult();
+        result.setCode(0);
+        result.setMsg("success");
+        result.setTotal(size);
+        result.setData(users);
+        return result;
+    }
+
+
+    public static UserDto user(int i){
+        AddressDto address = new AddressDto();
+        address.setProvince("province-" + (i % 34));
+        address.setCity("city-" + (i % 300));
+        address.setDetail("street " + i + ", building " + (i % 20));
+
+        UserDto user = new UserDto();
+        user.setId(i);
+        user.setName("user-" + i);
+        user.setPhone("1380000" + String.format("%04d", i % 10000));
+        user.setIdCard("11010119900101" + String.format("%04d", i % 10000));
+        user.setAddress(address);
+        user.setCreateTime(new Date(1600000000000L + i * 1000L));
+        return user;
+    }
+
+}
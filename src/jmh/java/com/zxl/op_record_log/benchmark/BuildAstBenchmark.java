@@ -0,0 +1,46 @@
+package com.zxl.op_record_log.benchmark;
+
+import com.zxl.op_record_log.DesensitizationField;
+import com.zxl.op_record_log.DesensitizationLevel;
+import com.zxl.op_record_log.OpRecordAspect;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * buildAst在命中缓存与不使用缓存时的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuildAstBenchmark {
+
+    @Param({"token", "query.password", "query.idCards[*]"})
+    public String exp;
+
+    private Method method;
+
+
+    @Setup
+    public void setup(){
+        method = BenchmarkFixtures.method(DesensitizationLevel.PART);
+        // 编译方法的处理计划, 使buildAst可以命中缓存
+        OpRecordAspect.getMethodPlan(method);
+    }
+
+
+    @Benchmark
+    public DesensitizationField cacheHit(){
+        return OpRecordAspect.buildAst(method, exp, true);
+    }
+
+    @Benchmark
+    public DesensitizationField noCache(){
+        return OpRecordAspect.buildAst(method, exp, false);
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.zxl.op_record_log.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.zxl.op_record_log.DesensitizationField;
+import com.zxl.op_record_log.OpRecordAspect;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * desensitization(String, ...)对大json数组进行脱敏的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DesensitizationBenchmark {
+
+    /**
+     * json数组的元素个数
+     */
+    @Param({"100", "10000"})
+    public int size;
+
+    private String json;
+
+    private Map<String, DesensitizationField> fieldMap;
+
+
+    @Setup
+    public void setup(){
+        json = JSON.toJSONString(BenchmarkFixtures.pageResult(size).getData());
+        fieldMap = OpRecordAspect.paramStr2DesensitizationFieldMap(new String[]{"phone", "idCard", "address.detail"});
+    }
+
+
+    @Benchmark
+    public String desensitization() throws Exception {
+        return OpRecordAspect.desensitization(json, fieldMap, "****", false);
+    }
+
+    @Benchmark
+    public String desensitizationAll() throws Exception {
+        return OpRecordAspect.desensitization(json, fieldMap, "****", true);
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.zxl.op_record_log.benchmark;
+
+import com.zxl.op_record_log.OpRecordIdGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OpRecordIdGenerator在多线程竞争下的吞吐量, 使用 -t 指定线程数, 例如 -t 1、-t 4、-t max
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdGeneratorBenchmark {
+
+    private OpRecordIdGenerator generator;
+
+
+    @Setup
+    public void setup() throws Exception {
+        generator = new OpRecordIdGenerator(1);
+    }
+
+
+    @Benchmark
+    public long nextId(){
+        return generator.nextId();
+    }
+
+}
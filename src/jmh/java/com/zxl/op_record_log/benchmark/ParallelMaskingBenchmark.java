@@ -0,0 +1,68 @@
+package com.zxl.op_record_log.benchmark;
+
+import com.zxl.op_record_log.DesensitizationLevel;
+import com.zxl.op_record_log.OpRecordAnnotation;
+import com.zxl.op_record_log.OpRecordAspect;
+import com.zxl.op_record_log.OpRecordLimit;
+import com.zxl.op_record_log.OpRecordParallelMasker;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大数组串行脱敏与并行脱敏的对比, 用于确定parallelMaskThreshold.
+ *   parallel为false时不使用并行脱敏; 为true时阈值为1, 任何大小的数组都使用并行脱敏.
+ *   两者吞吐量交叉的size即为合适的阈值
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelMaskingBenchmark {
+
+    /**
+     * 响应中的记录条数
+     */
+    @Param({"256", "1000", "4000", "16000", "64000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private Method method;
+
+    private OpRecordAnnotation annotation;
+
+    private Object result;
+
+    private OpRecordParallelMasker parallelMasker;
+
+
+    @Setup
+    public void setup() throws Exception {
+        method = BenchmarkFixtures.method(DesensitizationLevel.PART);
+        annotation = method.getAnnotation(OpRecordAnnotation.class);
+        result = BenchmarkFixtures.pageResult(size);
+        OpRecordAspect.getMethodPlan(method);
+        if(parallel){
+            parallelMasker = new OpRecordParallelMasker(1, Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    @TearDown
+    public void tearDown(){
+        if(parallelMasker!=null){
+            parallelMasker.shutdown();
+        }
+    }
+
+
+    @Benchmark
+    public String respData() throws Exception {
+        return OpRecordAspect.getRespDataJsonStr(annotation, method, result, OpRecordLimit.UNLIMITED, parallelMasker);
+    }
+
+}
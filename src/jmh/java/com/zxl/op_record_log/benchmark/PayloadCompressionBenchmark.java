@@ -0,0 +1,71 @@
+package com.zxl.op_record_log.benchmark;
+
+import com.zxl.op_record_log.DesensitizationLevel;
+import com.zxl.op_record_log.OpRecordAnnotation;
+import com.zxl.op_record_log.OpRecordAspect;
+import com.zxl.op_record_log.OpRecordPayloadCompressor;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同压缩级别、是否使用字典时压缩响应报文的开销和压缩率.
+ *   压缩率 = compressedChars / originalChars (两者都是每秒的累计值)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadCompressionBenchmark {
+
+    /**
+     * 响应中的记录条数
+     */
+    @Param({"1", "10", "100", "1000"})
+    public int size;
+
+    @Param({"1", "6"})
+    public int level;
+
+    @Param({"false", "true"})
+    public boolean dictionary;
+
+    private Method method;
+
+    private String payload;
+
+    private OpRecordPayloadCompressor compressor;
+
+
+    /**
+     * 压缩前后的字符数
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Ratio {
+        public long originalChars;
+        public long compressedChars;
+    }
+
+
+    @Setup
+    public void setup() throws Exception {
+        method = BenchmarkFixtures.method(DesensitizationLevel.PART);
+        OpRecordAnnotation annotation = method.getAnnotation(OpRecordAnnotation.class);
+        payload = OpRecordAspect.getRespDataJsonStr(annotation, method, BenchmarkFixtures.pageResult(size));
+        compressor = new OpRecordPayloadCompressor(level, dictionary, 0);
+    }
+
+
+    @Benchmark
+    public String compress(Ratio ratio){
+        String compressed = compressor.compress(method, payload);
+        ratio.originalChars += payload.length();
+        ratio.compressedChars += compressed != null ? compressed.length() : payload.length();
+        return compressed;
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.zxl.op_record_log.benchmark;
+
+import com.zxl.op_record_log.DesensitizationLevel;
+import com.zxl.op_record_log.OpRecordAnnotation;
+import com.zxl.op_record_log.OpRecordAspect;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getReqDataJsonStr/getRespDataJsonStr在不同脱敏等级、不同报文大小下的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"NO", "ALL", "PART"})
+    public DesensitizationLevel level;
+
+    /**
+     * 请求中的集合大小以及响应中的记录条数
+     */
+    @Param({"1", "100", "10000"})
+    public int size;
+
+    private Method method;
+
+    private OpRecordAnnotation annotation;
+
+    private Object[] args;
+
+    private Object result;
+
+
+    @Setup
+    public void setup(){
+        method = BenchmarkFixtures.method(level);
+        annotation = method.getAnnotation(OpRecordAnnotation.class);
+        args = new Object[]{BenchmarkFixtures.query(size), "token-abcdef"};
+        result = BenchmarkFixtures.pageResult(size);
+        // 预先编译方法的处理计划, 只测量请求路径上的开销
+        OpRecordAspect.getMethodPlan(method);
+    }
+
+
+    @Benchmark
+    public String reqData(){
+        return OpRecordAspect.getReqDataJsonStr(annotation, method, args);
+    }
+
+    @Benchmark
+    public String respData() throws Exception {
+        return OpRecordAspect.getRespDataJsonStr(annotation, method, result);
+    }
+
+}
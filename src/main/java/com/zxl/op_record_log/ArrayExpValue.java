@@ -15,50 +15,96 @@ public class ArrayExpValue {
     }
 
     public static ArrayExpValue initByExpStr(String exp){
+        exp = exp.trim();
+
         // 星号
         if(exp.equals("*")){
             return new ArrayExpValue(ArrayExpMode.ASTERISK,null,null);
         }
 
-        // 范围匹配
-        String splitSymbol = "-";
-        if(exp.contains(splitSymbol)){
-            int idx=exp.indexOf(splitSymbol);
-            String[] values=exp.split(splitSymbol);
-            return new ArrayExpValue(ArrayExpMode.RANG,values[0],values[1]);
+        // 小于等于, 需要在"<"之前判断
+        String lessEqSymbol="<=";
+        if(exp.startsWith(lessEqSymbol)){
+            return new ArrayExpValue(ArrayExpMode.LESS_EQ,null,checkIndex(exp,exp.substring(lessEqSymbol.length())));
         }
 
         // 小于匹配.
         String lessSymbol="<";
         if(exp.startsWith(lessSymbol)){
-            String[] values=exp.split(splitSymbol);
-            return new ArrayExpValue(ArrayExpMode.LESS,null,values[0]);
+            return new ArrayExpValue(ArrayExpMode.LESS,null,checkIndex(exp,exp.substring(lessSymbol.length())));
         }
 
-        // 小于等于
-        String lessEqSymbol="<=";
-        if(exp.startsWith(lessEqSymbol)){
-            String[] values=exp.split(lessEqSymbol);
-            return new ArrayExpValue(ArrayExpMode.LESS_EQ,null,values[0]);
+        // 大于等于, 需要在">"之前判断
+        String greaterEqSymbol=">=";
+        if(exp.startsWith(greaterEqSymbol)){
+            return new ArrayExpValue(ArrayExpMode.GREATER_EQ,checkIndex(exp,exp.substring(greaterEqSymbol.length())),null);
         }
 
         // 大于匹配.
         String greaterSymbol=">";
         if(exp.startsWith(greaterSymbol)){
-            String[] values=exp.split(greaterSymbol);
-            return new ArrayExpValue(ArrayExpMode.GREATER,values[0],values[0]);
+            return new ArrayExpValue(ArrayExpMode.GREATER,checkIndex(exp,exp.substring(greaterSymbol.length())),null);
         }
 
-        // 大于等于
-        String greaterEqSymbol=">=";
-        if(exp.startsWith(greaterEqSymbol)){
-            String[] values=exp.split(greaterEqSymbol);
-            return new ArrayExpValue(ArrayExpMode.GREATER_EQ,values[0],null);
+        // 范围匹配
+        String splitSymbol = "-";
+        int idx=exp.indexOf(splitSymbol);
+        if(idx>=0){
+            return new ArrayExpValue(ArrayExpMode.RANG,checkIndex(exp,exp.substring(0,idx)),checkIndex(exp,exp.substring(idx+1)));
         }
 
-
         // 精确匹配
-        return new ArrayExpValue(ArrayExpMode.PRECISE,exp,null);
+        return new ArrayExpValue(ArrayExpMode.PRECISE,checkIndex(exp,exp),null);
+    }
+
+    /**
+     * 校验下标是否为非负整数
+     */
+    private static String checkIndex(String exp, String index){
+        String value = index.trim();
+        if(value.isEmpty()){
+            throw new IllegalArgumentException(OpRecordAspect.EXP_SYNTAX_ERR + " : " + exp);
+        }
+        for(int i=0;i<value.length();i++){
+            if(!Character.isDigit(value.charAt(i))){
+                throw new IllegalArgumentException(OpRecordAspect.EXP_SYNTAX_ERR + " : " + exp);
+            }
+        }
+        try {
+            Integer.parseInt(value);
+        }catch (NumberFormatException e){
+            throw new IllegalArgumentException(OpRecordAspect.EXP_SYNTAX_ERR + " : " + exp, e);
+        }
+        return value;
+    }
+
+    /**
+     * 转换为匹配的下标闭区间 [start,end], 不匹配任何下标时返回null
+     */
+    int[] toInterval(){
+        switch (mode){
+            case ASTERISK:
+                return new int[]{0,Integer.MAX_VALUE};
+            case PRECISE:
+                int idx = Integer.parseInt(left);
+                return new int[]{idx,idx};
+            case RANG:
+                int from = Integer.parseInt(left);
+                int to = Integer.parseInt(right);
+                return new int[]{Math.min(from,to),Math.max(from,to)};
+            case LESS:
+                int less = Integer.parseInt(right);
+                return less <= 0 ? null : new int[]{0,less-1};
+            case LESS_EQ:
+                return new int[]{0,Integer.parseInt(right)};
+            case GREATER:
+                int greater = Integer.parseInt(left);
+                return greater == Integer.MAX_VALUE ? null : new int[]{greater+1,Integer.MAX_VALUE};
+            case GREATER_EQ:
+                return new int[]{Integer.parseInt(left),Integer.MAX_VALUE};
+            default:
+                return null;
+        }
     }
 
     public enum ArrayExpMode {
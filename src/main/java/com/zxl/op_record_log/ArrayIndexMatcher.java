@@ -0,0 +1,106 @@
+package com.zxl.op_record_log;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 数组下标匹配器.
+ *   将"["与"]"之间的表达式集合编译为合并后的、有序的下标闭区间，
+ *   匹配时使用二分查找，星号或覆盖全部下标时直接返回true
+ */
+public final class ArrayIndexMatcher {
+
+    private static final ArrayIndexMatcher NONE = new ArrayIndexMatcher(new int[0], new int[0]);
+
+    /**
+     * 区间的起始下标(升序)
+     */
+    private final int[] starts;
+
+    /**
+     * 区间的结束下标(包含)
+     */
+    private final int[] ends;
+
+    /**
+     * 是否匹配所有下标
+     */
+    private final boolean matchAll;
+
+
+    private ArrayIndexMatcher(int[] starts, int[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+        this.matchAll = starts.length == 1 && starts[0] == 0 && ends[0] == Integer.MAX_VALUE;
+    }
+
+
+    public static ArrayIndexMatcher compile(List<ArrayExpValue> arrayExps){
+        if(arrayExps==null || arrayExps.isEmpty()){
+            return NONE;
+        }
+
+        List<int[]> intervals = new ArrayList<>(arrayExps.size());
+        for(ArrayExpValue expValue : arrayExps){
+            int[] interval = expValue.toInterval();
+            if(interval!=null){
+                intervals.add(interval);
+            }
+        }
+        intervals.sort(Comparator.comparingInt(interval -> interval[0]));
+
+        // 合并重叠或相邻的区间
+        List<int[]> merged = new ArrayList<>(intervals.size());
+        for(int[] interval : intervals){
+            int[] last = merged.isEmpty() ? null : merged.get(merged.size()-1);
+            if(last!=null && (last[1] == Integer.MAX_VALUE || interval[0] <= last[1] + 1)){
+                last[1] = Math.max(last[1],interval[1]);
+            }else {
+                merged.add(new int[]{interval[0],interval[1]});
+            }
+        }
+
+        int[] starts = new int[merged.size()];
+        int[] ends = new int[merged.size()];
+        for(int i=0;i<merged.size();i++){
+            starts[i] = merged.get(i)[0];
+            ends[i] = merged.get(i)[1];
+        }
+        return new ArrayIndexMatcher(starts,ends);
+    }
+
+
+    /**
+     * 下标i是否匹配
+     */
+    public boolean matches(int i){
+        if(matchAll){
+            return true;
+        }
+        // 找到最后一个start<=i的区间
+        int low = 0;
+        int high = starts.length - 1;
+        while (low <= high){
+            int mid = (low + high) >>> 1;
+            if(starts[mid] <= i){
+                low = mid + 1;
+            }else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 && i <= ends[high];
+    }
+
+    public boolean isMatchAll() {
+        return matchAll;
+    }
+
+    /**
+     * 可能匹配的最大下标, 大于该下标的元素都不需要脱敏. 不匹配任何下标时为-1
+     */
+    public int getMaxIndex(){
+        return ends.length == 0 ? -1 : ends[ends.length-1];
+    }
+
+}
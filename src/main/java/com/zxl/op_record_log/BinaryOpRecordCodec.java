@@ -0,0 +1,462 @@
+package com.zxl.op_record_log;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 紧凑的二进制编解码器.
+ *   opAccount、reqFunc、reqUrl、reqMethod等重复的元数据字符串第一次出现时写入字符串并分配字典id, 之后只写入id;
+ *   opTime、elapsedTime等数值使用zigzag变长整数; reqData、respData使用长度前缀的UTF-8字节.
+ *
+ *   格式: [版本][可选字段的标识位][id][opAccount][reqFunc][reqUrl][reqMethod][reqData][respData][success][opTime][elapsedTime]
+ *        [reqSerializeNanos][proceedNanos][respSerializeNanos][queueNanos][degradeLevel][payloadCodec][reqDataSize][respDataSize]
+ *        [aggregateCount][aggregateErrorCount][elapsedP99][elapsedMax]
+ *        [errorType][errorFingerprint][errorMessage][errorStack][errorOccurrence]
+ *   为null的可选字段只记录标识位, 不写入值
+ *
+ *   字典是有状态的: 解码必须按编码的顺序进行, 并在相同的位置调用reset(). 非线程安全
+ */
+public class BinaryOpRecordCodec implements OpRecordCodec {
+
+    private static final int VERSION = 1;
+
+    /**
+     * 字典最多的字符串个数, 超过后新的字符串不再分配id
+     */
+    private static final int MAX_DICT_SIZE = 4096;
+
+    /**
+     * 超过该长度的字符串不放入字典
+     */
+    private static final int MAX_DICT_STRING_LENGTH = 256;
+
+    private static final int FLAG_ID = 1;
+
+    private static final int FLAG_SUCCESS = 1 << 1;
+
+    private static final int FLAG_OP_TIME = 1 << 2;
+
+    private static final int FLAG_REQ_SERIALIZE_NANOS = 1 << 3;
+
+    private static final int FLAG_PROCEED_NANOS = 1 << 4;
+
+    private static final int FLAG_RESP_SERIALIZE_NANOS = 1 << 5;
+
+    private static final int FLAG_QUEUE_NANOS = 1 << 6;
+
+    private static final int FLAG_DEGRADE_LEVEL = 1 << 7;
+
+    private static final int FLAG_PAYLOAD_CODEC = 1 << 8;
+
+    private static final int FLAG_REQ_DATA_SIZE = 1 << 9;
+
+    private static final int FLAG_RESP_DATA_SIZE = 1 << 10;
+
+    private static final int FLAG_AGGREGATE_COUNT = 1 << 11;
+
+    private static final int FLAG_AGGREGATE_ERROR_COUNT = 1 << 12;
+
+    private static final int FLAG_ELAPSED_P99 = 1 << 13;
+
+    private static final int FLAG_ELAPSED_MAX = 1 << 14;
+
+    /**
+     * errorType、errorFingerprint、errorMessage、errorStack, 其中任意一个不为null时写入全部4个
+     */
+    private static final int FLAG_ERROR = 1 << 15;
+
+    private static final int FLAG_ERROR_OCCURRENCE = 1 << 16;
+
+    /**
+     * 编码端的字典: 字符串 -> id(从1开始)
+     */
+    private final Map<String, Integer> encodeDict = new HashMap<>();
+
+    /**
+     * 解码端的字典: 下标为id-1
+     */
+    private final List<String> decodeDict = new ArrayList<>();
+
+
+    @Override
+    public byte[] encode(OpRecordModelDto dto) {
+        Output out = new Output(64 + length(dto.getReqData()) + length(dto.getRespData()));
+        out.writeByte(VERSION);
+
+        int flags = 0;
+        if(dto.getId() != null){
+            flags |= FLAG_ID;
+        }
+        if(dto.getSuccess() != null){
+            flags |= FLAG_SUCCESS;
+        }
+        if(dto.getOpTime() != null){
+            flags |= FLAG_OP_TIME;
+        }
+        if(dto.getReqSerializeNanos() != null){
+            flags |= FLAG_REQ_SERIALIZE_NANOS;
+        }
+        if(dto.getProceedNanos() != null){
+            flags |= FLAG_PROCEED_NANOS;
+        }
+        if(dto.getRespSerializeNanos() != null){
+            flags |= FLAG_RESP_SERIALIZE_NANOS;
+        }
+        if(dto.getQueueNanos() != null){
+            flags |= FLAG_QUEUE_NANOS;
+        }
+        if(dto.getDegradeLevel() != null){
+            flags |= FLAG_DEGRADE_LEVEL;
+        }
+        if(dto.getPayloadCodec() != null){
+            flags |= FLAG_PAYLOAD_CODEC;
+        }
+        if(dto.getReqDataSize() != null){
+            flags |= FLAG_REQ_DATA_SIZE;
+        }
+        if(dto.getRespDataSize() != null){
+            flags |= FLAG_RESP_DATA_SIZE;
+        }
+        if(dto.getAggregateCount() != null){
+            flags |= FLAG_AGGREGATE_COUNT;
+        }
+        if(dto.getAggregateErrorCount() != null){
+            flags |= FLAG_AGGREGATE_ERROR_COUNT;
+        }
+        if(dto.getElapsedP99() != null){
+            flags |= FLAG_ELAPSED_P99;
+        }
+        if(dto.getElapsedMax() != null){
+            flags |= FLAG_ELAPSED_MAX;
+        }
+        boolean error = dto.getErrorType() != null || dto.getErrorFingerprint() != null
+                || dto.getErrorMessage() != null || dto.getErrorStack() != null;
+        if(error){
+            flags |= FLAG_ERROR;
+        }
+        if(dto.getErrorOccurrence() != null){
+            flags |= FLAG_ERROR_OCCURRENCE;
+        }
+        out.writeVarLong(flags);
+
+        if(dto.getId() != null){
+            out.writeZigZag(dto.getId());
+        }
+        writeDictString(out, dto.getOpAccount());
+        writeDictString(out, dto.getReqFunc());
+        writeDictString(out, dto.getReqUrl());
+        writeDictString(out, dto.getReqMethod());
+        out.writeString(dto.getReqData());
+        out.writeString(dto.getRespData());
+        if(dto.getSuccess() != null){
+            out.writeByte(dto.getSuccess() ? 1 : 0);
+        }
+        if(dto.getOpTime() != null){
+            out.writeZigZag(dto.getOpTime().getTime());
+        }
+        out.writeZigZag(dto.getElapsedTime());
+        if(dto.getReqSerializeNanos() != null){
+            out.writeZigZag(dto.getReqSerializeNanos());
+        }
+        if(dto.getProceedNanos() != null){
+            out.writeZigZag(dto.getProceedNanos());
+        }
+        if(dto.getRespSerializeNanos() != null){
+            out.writeZigZag(dto.getRespSerializeNanos());
+        }
+        if(dto.getQueueNanos() != null){
+            out.writeZigZag(dto.getQueueNanos());
+        }
+        if(dto.getDegradeLevel() != null){
+            out.writeByte(dto.getDegradeLevel().ordinal());
+        }
+        if(dto.getPayloadCodec() != null){
+            out.writeByte(dto.getPayloadCodec().ordinal());
+        }
+        if(dto.getReqDataSize() != null){
+            out.writeZigZag(dto.getReqDataSize());
+        }
+        if(dto.getRespDataSize() != null){
+            out.writeZigZag(dto.getRespDataSize());
+        }
+        if(dto.getAggregateCount() != null){
+            out.writeZigZag(dto.getAggregateCount());
+        }
+        if(dto.getAggregateErrorCount() != null){
+            out.writeZigZag(dto.getAggregateErrorCount());
+        }
+        if(dto.getElapsedP99() != null){
+            out.writeZigZag(dto.getElapsedP99());
+        }
+        if(dto.getElapsedMax() != null){
+            out.writeZigZag(dto.getElapsedMax());
+        }
+        if(error){
+            writeDictString(out, dto.getErrorType());
+            writeDictString(out, dto.getErrorFingerprint());
+            out.writeString(dto.getErrorMessage());
+            out.writeString(dto.getErrorStack());
+        }
+        if(dto.getErrorOccurrence() != null){
+            out.writeZigZag(dto.getErrorOccurrence());
+        }
+        return out.toByteArray();
+    }
+
+
+    @Override
+    public OpRecordModelDto decode(byte[] bytes) {
+        Input in = new Input(bytes);
+        int version = in.readByte();
+        if(version != VERSION){
+            throw new IllegalArgumentException("unsupported BinaryOpRecordCodec version : " + version);
+        }
+
+        long flags = in.readVarLong();
+        OpRecordModelDto dto = new OpRecordModelDto();
+        if((flags & FLAG_ID) != 0){
+            dto.setId(in.readZigZag());
+        }
+        dto.setOpAccount(readDictString(in));
+        dto.setReqFunc(readDictString(in));
+        dto.setReqUrl(readDictString(in));
+        dto.setReqMethod(readDictString(in));
+        dto.setReqData(in.readString());
+        dto.setRespData(in.readString());
+        if((flags & FLAG_SUCCESS) != 0){
+            dto.setSuccess(in.readByte() == 1);
+        }
+        if((flags & FLAG_OP_TIME) != 0){
+            dto.setOpTime(new Date(in.readZigZag()));
+        }
+        dto.setElapsedTime(in.readZigZag());
+        if((flags & FLAG_REQ_SERIALIZE_NANOS) != 0){
+            dto.setReqSerializeNanos(in.readZigZag());
+        }
+        if((flags & FLAG_PROCEED_NANOS) != 0){
+            dto.setProceedNanos(in.readZigZag());
+        }
+        if((flags & FLAG_RESP_SERIALIZE_NANOS) != 0){
+            dto.setRespSerializeNanos(in.readZigZag());
+        }
+        if((flags & FLAG_QUEUE_NANOS) != 0){
+            dto.setQueueNanos(in.readZigZag());
+        }
+        if((flags & FLAG_DEGRADE_LEVEL) != 0){
+            int level = in.readByte();
+            if(level >= OpRecordDegradeLevel.values().length){
+                throw new IllegalArgumentException("unknown degrade level : " + level);
+            }
+            dto.setDegradeLevel(OpRecordDegradeLevel.values()[level]);
+        }
+        if((flags & FLAG_PAYLOAD_CODEC) != 0){
+            int codec = in.readByte();
+            if(codec >= OpRecordPayloadCodec.values().length){
+                throw new IllegalArgumentException("unknown payload codec : " + codec);
+            }
+            dto.setPayloadCodec(OpRecordPayloadCodec.values()[codec]);
+        }
+        if((flags & FLAG_REQ_DATA_SIZE) != 0){
+            dto.setReqDataSize((int) in.readZigZag());
+        }
+        if((flags & FLAG_RESP_DATA_SIZE) != 0){
+            dto.setRespDataSize((int) in.readZigZag());
+        }
+        if((flags & FLAG_AGGREGATE_COUNT) != 0){
+            dto.setAggregateCount(in.readZigZag());
+        }
+        if((flags & FLAG_AGGREGATE_ERROR_COUNT) != 0){
+            dto.setAggregateErrorCount(in.readZigZag());
+        }
+        if((flags & FLAG_ELAPSED_P99) != 0){
+            dto.setElapsedP99(in.readZigZag());
+        }
+        if((flags & FLAG_ELAPSED_MAX) != 0){
+            dto.setElapsedMax(in.readZigZag());
+        }
+        if((flags & FLAG_ERROR) != 0){
+            dto.setErrorType(readDictString(in));
+            dto.setErrorFingerprint(readDictString(in));
+            dto.setErrorMessage(in.readString());
+            dto.setErrorStack(in.readString());
+        }
+        if((flags & FLAG_ERROR_OCCURRENCE) != 0){
+            dto.setErrorOccurrence(in.readZigZag());
+        }
+        return dto;
+    }
+
+
+    @Override
+    public void reset() {
+        encodeDict.clear();
+        decodeDict.clear();
+    }
+
+    @Override
+    public Type getType() {
+        return Type.BINARY;
+    }
+
+
+    /**
+     * 字典字符串的编码: 0表示null; 偶数(id<<1)表示已有的id;
+     *   奇数表示后面跟着字符串: (id<<1)|1 表示同时分配该id, 1 表示不放入字典
+     */
+    private void writeDictString(Output out, String value){
+        if(value == null){
+            out.writeVarLong(0);
+            return;
+        }
+        Integer id = encodeDict.get(value);
+        if(id != null){
+            out.writeVarLong((long) id << 1);
+            return;
+        }
+        if(encodeDict.size() < MAX_DICT_SIZE && value.length() <= MAX_DICT_STRING_LENGTH){
+            int newId = encodeDict.size() + 1;
+            encodeDict.put(value, newId);
+            out.writeVarLong(((long) newId << 1) | 1);
+        }else {
+            out.writeVarLong(1);
+        }
+        out.writeString(value);
+    }
+
+    private String readDictString(Input in){
+        long tag = in.readVarLong();
+        if(tag == 0){
+            return null;
+        }
+        int id = (int) (tag >>> 1);
+        if((tag & 1) == 0){
+            if(id < 1 || id > decodeDict.size()){
+                throw new IllegalArgumentException("unknown dictionary id : " + id);
+            }
+            return decodeDict.get(id - 1);
+        }
+        String value = in.readString();
+        if(id != 0){
+            if(id != decodeDict.size() + 1){
+                throw new IllegalArgumentException("dictionary is out of order, expect id " + (decodeDict.size() + 1) + " but " + id);
+            }
+            decodeDict.add(value);
+        }
+        return value;
+    }
+
+    private static int length(String value){
+        return value == null ? 0 : value.length();
+    }
+
+
+    private static final class Output {
+
+        private byte[] buf;
+
+        private int pos;
+
+        Output(int initialSize) {
+            this.buf = new byte[initialSize];
+        }
+
+        private void ensure(int size){
+            if(pos + size > buf.length){
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + size));
+            }
+        }
+
+        void writeByte(int value){
+            ensure(1);
+            buf[pos++] = (byte) value;
+        }
+
+        void writeVarLong(long value){
+            ensure(10);
+            while ((value & ~0x7FL) != 0){
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void writeZigZag(long value){
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * 长度前缀的UTF-8字符串: 长度+1, 0表示null
+         */
+        void writeString(String value){
+            if(value == null){
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        byte[] toByteArray(){
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+
+    private static final class Input {
+
+        private final byte[] buf;
+
+        private int pos;
+
+        Input(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readByte(){
+            if(pos >= buf.length){
+                throw new IllegalArgumentException("unexpected end of record");
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        long readVarLong(){
+            long result = 0;
+            for(int shift = 0; shift < 64; shift += 7){
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if((b & 0x80) == 0){
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("malformed varint");
+        }
+
+        long readZigZag(){
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString(){
+            long length = readVarLong();
+            if(length == 0){
+                return null;
+            }
+            int size = (int) (length - 1);
+            if(size < 0 || pos + size > buf.length){
+                throw new IllegalArgumentException("unexpected end of record");
+            }
+            String value = new String(buf, pos, size, StandardCharsets.UTF_8);
+            pos += size;
+            return value;
+        }
+    }
+
+}
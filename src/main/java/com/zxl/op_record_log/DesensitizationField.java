@@ -35,6 +35,11 @@ public class DesensitizationField {
      */
     private List<ArrayExpValue> arrayExps;
 
+    /**
+     * type字段为ARRAY时才有值，由arrayExps编译而成的下标匹配器
+     */
+    private ArrayIndexMatcher indexMatcher;
+
 
     public static DesensitizationField getArrayEntity(String keyName,String[] arrayExpStr){
         DesensitizationField field = new DesensitizationField();
@@ -44,6 +49,7 @@ public class DesensitizationField {
                 .map(ArrayExpValue::initByExpStr)
                 .collect(Collectors.toList());
         field.setArrayExps(expValues);
+        field.setIndexMatcher(ArrayIndexMatcher.compile(expValues));
         return field;
     }
 
@@ -0,0 +1,133 @@
+package com.zxl.op_record_log;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于内存直方图的监控指标实现
+ */
+public class InMemoryOpRecordMetrics implements OpRecordMetrics {
+
+    /**
+     * 报文脱敏、序列化的耗时(纳秒)
+     */
+    private final OpRecordHistogram serializationNanos = new OpRecordHistogram();
+
+    /**
+     * 序列化后报文的字符数
+     */
+    private final OpRecordHistogram payloadChars = new OpRecordHistogram();
+
+    /**
+     * 被调用的函数本身的耗时(纳秒)
+     */
+    private final OpRecordHistogram proceedNanos = new OpRecordHistogram();
+
+    /**
+     * 每次(批量)持久化的耗时(纳秒)
+     */
+    private final OpRecordHistogram persistenceNanos = new OpRecordHistogram();
+
+    /**
+     * 持久化的记录数
+     */
+    private final LongAdder persistedRecords = new LongAdder();
+
+    private final Map<String, LongAdder> errorCounts = new ConcurrentHashMap<>();
+
+    private final Map<Method, LongAdder> callCounts = new ConcurrentHashMap<>();
+
+
+    @Override
+    public void recordCall(Method method) {
+        counter(callCounts, method).increment();
+    }
+
+    @Override
+    public void recordSerialization(Method method, long nanos, int chars) {
+        serializationNanos.record(nanos);
+        payloadChars.record(chars);
+    }
+
+    @Override
+    public void recordProceed(Method method, long nanos) {
+        proceedNanos.record(nanos);
+    }
+
+    @Override
+    public void recordPersistence(int records, long nanos) {
+        persistenceNanos.record(nanos);
+        persistedRecords.add(records);
+    }
+
+    @Override
+    public void recordError(String type) {
+        counter(errorCounts, type).increment();
+    }
+
+
+    private static <K> LongAdder counter(Map<K, LongAdder> counters, K key){
+        LongAdder counter = counters.get(key);
+        if(counter == null){
+            counter = counters.computeIfAbsent(key, k -> new LongAdder());
+        }
+        return counter;
+    }
+
+    private static <K> Map<K, Long> snapshot(Map<K, LongAdder> counters){
+        Map<K, Long> snapshot = new HashMap<>(counters.size());
+        counters.forEach((k, v) -> snapshot.put(k, v.sum()));
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+
+    public OpRecordHistogram getSerializationNanos() {
+        return serializationNanos;
+    }
+
+    public OpRecordHistogram getPayloadChars() {
+        return payloadChars;
+    }
+
+    public OpRecordHistogram getProceedNanos() {
+        return proceedNanos;
+    }
+
+    public OpRecordHistogram getPersistenceNanos() {
+        return persistenceNanos;
+    }
+
+    public long getPersistedRecords() {
+        return persistedRecords.sum();
+    }
+
+    /**
+     * 各类型的错误次数
+     */
+    public Map<String, Long> getErrorCounts() {
+        return snapshot(errorCounts);
+    }
+
+    /**
+     * 各方法的调用次数
+     */
+    public Map<Method, Long> getCallCounts() {
+        return snapshot(callCounts);
+    }
+
+
+    @Override
+    public String toString() {
+        return "InMemoryOpRecordMetrics{serializationNanos=" + serializationNanos
+                + ", payloadChars=" + payloadChars
+                + ", proceedNanos=" + proceedNanos
+                + ", persistenceNanos=" + persistenceNanos
+                + ", persistedRecords=" + getPersistedRecords()
+                + ", errorCounts=" + getErrorCounts() + "}";
+    }
+
+}
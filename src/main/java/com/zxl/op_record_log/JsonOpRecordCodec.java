@@ -0,0 +1,25 @@
+package com.zxl.op_record_log;
+
+import com.alibaba.fastjson.JSON;
+
+/**
+ * 使用fastjson的编解码器, 无状态, 线程安全
+ */
+public class JsonOpRecordCodec implements OpRecordCodec {
+
+    @Override
+    public byte[] encode(OpRecordModelDto dto) {
+        return JSON.toJSONBytes(dto);
+    }
+
+    @Override
+    public OpRecordModelDto decode(byte[] bytes) {
+        return JSON.parseObject(bytes, OpRecordModelDto.class);
+    }
+
+    @Override
+    public Type getType() {
+        return Type.JSON;
+    }
+
+}
@@ -0,0 +1,270 @@
+package com.zxl.op_record_log;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 聚合模式(OpRecordAnnotation.aggregate)的统计.
+ *   按(方法, 操作人账号, 时间窗口)统计调用次数、异常次数和耗时的直方图, 计数使用LongAdder, 不加锁.
+ *   时间窗口结束之后, 每个窗口输出一条汇总记录.
+ *   输出的后台线程在第一次统计时才创建, 没有聚合模式的方法时不占用线程
+ */
+@Slf4j
+public class OpRecordAggregator {
+
+    /**
+     * 窗口结束之后再等待该时间才输出, 避免正在记录的调用被遗漏
+     */
+    private static final long GRACE_MILLIS = 1000;
+
+    /**
+     * 汇总记录的输出
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void emit(OpRecordMethodPlan plan, OpRecordModelDto dto) throws InterruptedException;
+    }
+
+    private final long windowMillis;
+
+    private final Sink sink;
+
+    private final Map<Key, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * 输出汇总记录的后台线程, 第一次统计之前为null
+     */
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * 是否已经关闭, 关闭之后不再创建后台线程. 通过this同步
+     */
+    private boolean closed;
+
+
+    /**
+     * @param windowMillis 时间窗口的长度(毫秒)
+     * @param sink 汇总记录的输出
+     */
+    public OpRecordAggregator(long windowMillis, Sink sink) throws Exception {
+        if(windowMillis <= 0){
+            throw new Exception("windowMillis must be greater than 0 !");
+        }
+        this.windowMillis = windowMillis;
+        this.sink = sink;
+    }
+
+
+    /**
+     * 创建输出汇总记录的后台线程, 已经创建或已经关闭时不做任何事
+     */
+    private void startScheduler(){
+        if(scheduler != null){
+            return;
+        }
+        synchronized (this){
+            if(scheduler != null || closed){
+                return;
+            }
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "op-record-aggregator");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.min(windowMillis, GRACE_MILLIS);
+            executor.scheduleAtFixedRate(() -> flush(false), period, period, TimeUnit.MILLISECONDS);
+            scheduler = executor;
+        }
+    }
+
+
+    /**
+     * 记录一次调用
+     * @param elapsedMillis 执行耗时(毫秒)
+     * @param error 是否抛出了异常
+     */
+    public void record(OpRecordMethodPlan plan, String account, String reqUrl, String reqMethod, long elapsedMillis, boolean error){
+        Window window = window(plan, account, reqUrl, reqMethod);
+        window.elapsed.record(elapsedMillis);
+        if(error){
+            window.errors.increment();
+        }
+    }
+
+    /**
+     * 当前窗口是否还可以保留一条完整的记录
+     * @param maxSamples 每个窗口最多保留的完整记录数
+     */
+    public boolean takeSample(OpRecordMethodPlan plan, String account, String reqUrl, String reqMethod, int maxSamples){
+        if(maxSamples <= 0){
+            return false;
+        }
+        AtomicInteger samples = window(plan, account, reqUrl, reqMethod).samples;
+        // 达到上限之后不再自增, 避免计数溢出
+        return samples.get() < maxSamples && samples.incrementAndGet() <= maxSamples;
+    }
+
+    /**
+     * 正在统计的窗口个数
+     */
+    public int getWindowCount(){
+        return windows.size();
+    }
+
+    /**
+     * 后台线程是否已经创建
+     */
+    public boolean isStarted(){
+        return scheduler != null;
+    }
+
+
+    private Window window(OpRecordMethodPlan plan, String account, String reqUrl, String reqMethod){
+        long now = System.currentTimeMillis();
+        Key key = new Key(plan.getMethod(), account, now - Math.floorMod(now, windowMillis));
+        Window window = windows.get(key);
+        if(window == null){
+            startScheduler();
+            window = windows.computeIfAbsent(key, k -> new Window(plan, reqUrl, reqMethod));
+        }
+        return window;
+    }
+
+
+    /**
+     * 输出已经结束的窗口
+     * @param all 是否输出所有的窗口(关闭时)
+     */
+    private void flush(boolean all){
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Key, Window>> iterator = windows.entrySet().iterator();
+        while (iterator.hasNext()){
+            Map.Entry<Key, Window> entry = iterator.next();
+            Key key = entry.getKey();
+            if(!all && key.windowStart + windowMillis + GRACE_MILLIS > now){
+                continue;
+            }
+            iterator.remove();
+            try {
+                sink.emit(entry.getValue().plan, summary(key, entry.getValue()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("op record aggregate failed, summary is lost : {} {}", key.method, key.account, e);
+            }
+        }
+    }
+
+    private OpRecordModelDto summary(Key key, Window window){
+        OpRecordHistogram elapsed = window.elapsed;
+        OpRecordModelDto dto = new OpRecordModelDto();
+        dto.setOpAccount(key.account);
+        dto.setOpTime(new Date(key.windowStart));
+        dto.setReqFunc(window.plan.getReqFunc());
+        dto.setReqUrl(window.reqUrl);
+        dto.setReqMethod(window.reqMethod);
+        dto.setElapsedTime(Math.round(elapsed.getMean()));
+        dto.setAggregateCount(elapsed.getCount());
+        dto.setAggregateErrorCount(window.errors.sum());
+        dto.setElapsedP99(elapsed.getPercentile(0.99));
+        dto.setElapsedMax(elapsed.getMax());
+        dto.setSuccess(window.errors.sum() == 0);
+        return dto;
+    }
+
+
+    /**
+     * 关闭时输出所有未结束的窗口
+     */
+    public void shutdown(){
+        ScheduledExecutorService executor;
+        synchronized (this){
+            closed = true;
+            executor = scheduler;
+        }
+        if(executor != null){
+            executor.shutdown();
+            try {
+                executor.awaitTermination(GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush(true);
+    }
+
+
+    private static final class Key {
+
+        private final Method method;
+
+        private final String account;
+
+        private final long windowStart;
+
+        Key(Method method, String account, long windowStart) {
+            this.method = method;
+            this.account = account;
+            this.windowStart = windowStart;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o){
+                return true;
+            }
+            if(!(o instanceof Key)){
+                return false;
+            }
+            Key key = (Key) o;
+            return windowStart == key.windowStart && method.equals(key.method) && Objects.equals(account, key.account);
+        }
+
+        @Override
+        public int hashCode() {
+            return (method.hashCode() * 31 + Objects.hashCode(account)) * 31 + Long.hashCode(windowStart);
+        }
+    }
+
+
+    private static final class Window {
+
+        private final OpRecordMethodPlan plan;
+
+        /**
+         * reqUrl、reqMethod使用窗口中第一次调用的值
+         */
+
+        private final String reqUrl;
+
+        private final String reqMethod;
+
+        private final OpRecordHistogram elapsed = new OpRecordHistogram();
+
+        private final LongAdder errors = new LongAdder();
+
+        /**
+         * 已经保留的完整记录数
+         */
+        private final AtomicInteger samples = new AtomicInteger();
+
+        Window(OpRecordMethodPlan plan, String reqUrl, String reqMethod) {
+            this.plan = plan;
+            this.reqUrl = reqUrl;
+            this.reqMethod = reqMethod;
+        }
+    }
+
+}
@@ -57,4 +57,67 @@ public @interface OpRecordAnnotation {
     String[] respDtFields () default  {};
 
 
+    /**
+     * reqData/respData的最大遍历深度, 超过时该层输出截断标识. 0表示不限制, 负数表示使用全局配置
+     */
+    int maxDepth () default -1;
+
+    /**
+     * reqData/respData最多遍历的集合元素个数, 超过时截断. 0表示不限制, 负数表示使用全局配置
+     */
+    int maxElements () default -1;
+
+    /**
+     * reqData/respData的最大字符数, 超过时截断. 0表示不限制, 负数表示使用全局配置
+     */
+    int maxBytes () default -1;
+
+
+    /**
+     * 采样率, 取值0到1, 未被采样的调用不做任何记录. 负数表示使用全局配置
+     */
+    double sampleRate () default -1;
+
+    /**
+     * 每个账号每秒最多记录的次数, 超过的调用不做任何记录. 0表示不限制, 负数表示使用全局配置
+     */
+    int accountRateLimit () default -1;
+
+    /**
+     * 是否使用尾部采样: 在被调用的函数执行完成之后才进行序列化,
+     *  只有耗时超过slowThresholdMillis或者抛出异常时才记录完整的报文, 否则只记录reqUrl、elapsedTime等元数据.
+     *  注意: 请求报文在函数执行之后才序列化, 函数中对入参的修改会体现在reqData中
+     */
+    boolean tailSampling () default false;
+
+    /**
+     * 尾部采样的慢调用阈值(毫秒). 负数表示使用全局配置
+     */
+    long slowThresholdMillis () default -1;
+
+    /**
+     * 是否延迟序列化: 被调用的函数返回之后, 报文的脱敏、序列化在后台线程池中进行, 不占用请求线程.
+     *  注意: 入参、返回值会在函数返回之后才被读取, 函数返回之后还会修改入参的方法需要同时设置mutableArgs
+     */
+    boolean lazySerialize () default false;
+
+    /**
+     * 入参在函数执行过程中或返回之后是否会被修改. 为true且入参不全是不可变类型时,
+     *  lazySerialize的请求报文仍在执行之前由请求线程序列化, 作为入参的快照
+     */
+    boolean mutableArgs () default false;
+
+    /**
+     * 是否使用聚合模式: 不再每次调用记录一条, 而是按(方法, 操作人账号, 时间窗口)统计调用次数、异常次数和耗时,
+     *  每个窗口输出一条汇总记录. 适合同一账号高频调用的接口, 所有调用都会被统计, 不受采样率和限流的影响.
+     *  时间窗口的长度为全局配置的aggregateWindowMillis
+     */
+    boolean aggregate () default false;
+
+    /**
+     * 聚合模式下每个窗口额外保留的完整记录数(包含报文), 0表示不保留
+     */
+    int aggregateSamples () default 0;
+
+
 }
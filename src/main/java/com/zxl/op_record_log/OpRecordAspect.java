@@ -10,23 +10,35 @@ import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
 import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.format.datetime.standard.DateTimeContextHolder;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.CollectionUtils;
+import org.springframework.util.ReflectionUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
 import javax.servlet.http.HttpServletRequest;
-import java.lang.reflect.Field;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
 import java.util.*;
-import java.util.function.Function;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Aspect
-public class OpRecordAspect {
+public class OpRecordAspect implements DisposableBean, SmartInitializingSingleton, BeanFactoryAware {
 
     private CommonAuthContext authContext;
 
@@ -34,21 +46,103 @@ public class OpRecordAspect {
 
     private OpRecordPersistenceService persistenceService;
 
+    /**
+     * 异步持久化分发器, 未开启异步持久化时为null
+     */
+    private OpRecordDispatcher dispatcher;
+
+    private OpRecordSampler sampler;
+
+    /**
+     * 自动降级的控制器
+     */
+    private OpRecordGovernor governor;
+
+    /**
+     * 本地溢出日志, 未开启时为null
+     */
+    private OpRecordSpillLog spillLog;
+
+    /**
+     * 延迟序列化的后台线程池
+     */
+    private OpRecordSerializer serializer;
+
+    /**
+     * 大数组的并行脱敏, 未开启时为null
+     */
+    private OpRecordParallelMasker parallelMasker;
+
+    /**
+     * 记录id的生成器, 未开启时为null
+     */
+    private OpRecordIdGenerator idGenerator;
+
+    /**
+     * 异常指纹的缓存
+     */
+    private OpRecordErrorFingerprints errorFingerprints;
+
+    /**
+     * 聚合模式的统计
+     */
+    private OpRecordAggregator aggregator;
+
+    /**
+     * 报文的压缩, 未开启时为null
+     */
+    private OpRecordPayloadCompressor compressor;
+
+    private OpRecordMetrics metrics = OpRecordMetrics.NOOP;
+
+    /**
+     * 额外的持久化目标及其分发器, 下标一致
+     */
+    private List<OpRecordSink> sinks = Collections.emptyList();
+
+    private List<OpRecordDispatcher> sinkDispatchers = Collections.emptyList();
+
+    /**
+     * 启动时用于检查被@OpRecordAnnotation注解的方法, 不在spring容器中时为null
+     */
+    private ListableBeanFactory beanFactory;
+
+    /**
+     * 方法 -> 需要持久化到的额外目标的分发器
+     */
+    private final Map<Method, List<OpRecordDispatcher>> sinkRoutes = new ConcurrentHashMap<>();
+
     /**
      * 表达式语法错误
      */
     public static final String EXP_SYNTAX_ERR="Does not conform to expression syntax!";
 
     /**
-     * 已经解析成AST的缓存
+     * 已经编译好的方法处理计划(包含已经解析成AST的脱敏字段)的缓存
      */
-    private static final Map<Method, Map<String,DesensitizationField>> APPROVED_EXP=new HashMap<>();
+    private static final Map<Method, OpRecordMethodPlan> APPROVED_PLAN=new ConcurrentHashMap<>();
+
+    /**
+     * 无法编译处理计划(例如脱敏表达式不合法)的方法, 只记录一次错误日志, 之后直接执行方法, 不记录操作日志
+     */
+    private static final Set<Method> REJECTED_PLAN=ConcurrentHashMap.newKeySet();
+
+    /**
+     * 没有设置maxElements时, Flux最多记录的元素个数
+     */
+    private static final int MAX_ASYNC_ELEMENTS = 1000;
 
-    private static final Map<Class<?>,Map<String,Field>> CACHE_FIELD=new HashMap<>();
 
 
 
     public OpRecordAspect(CommonAuthContext authContext,OpRecordProcessConfig config ,OpRecordPersistenceService persistenceService) throws Exception {
+        this(authContext, config, persistenceService, Collections.emptyList());
+    }
+
+    /**
+     * @param sinks 额外的持久化目标, 每个目标使用独立的异步分发器, 不受persistenceFlg的影响
+     */
+    public OpRecordAspect(CommonAuthContext authContext,OpRecordProcessConfig config ,OpRecordPersistenceService persistenceService, List<OpRecordSink> sinks) throws Exception {
 
         if(config==null){
             throw new Exception("OpRecordProcessConfig is null !");
@@ -61,10 +155,171 @@ public class OpRecordAspect {
         this.authContext = authContext;
         this.config = config;
         this.persistenceService = persistenceService;
+        this.sampler = new OpRecordSampler(config);
+        this.serializer = new OpRecordSerializer(config.getSerializeThreads(),config.getSerializeQueueCapacity());
+        if(config.getParallelMaskThreshold() > 0){
+            this.parallelMasker = new OpRecordParallelMasker(config.getParallelMaskThreshold(),config.getParallelMaskThreads());
+        }
+        if(config.isCompressFlg()){
+            OpRecordDictionaryStore dictionaryStore = config.isCompressDictionaryFlg() && !StringUtils.isEmpty(config.getCompressDictionaryDir())
+                    ? new OpRecordDictionaryStore(new File(config.getCompressDictionaryDir())) : null;
+            this.compressor = new OpRecordPayloadCompressor(config.getCompressLevel(),config.isCompressDictionaryFlg(),config.getCompressMinBytes(),dictionaryStore);
+        }
+        if(config.isPersistenceFlg() && config.isSpillFlg()){
+            this.spillLog = new OpRecordSpillLog(new File(config.getSpillDir()),config.getSpillSegmentBytes(),persistenceService,config.getBatchSize(),config.getSpillReplayIntervalMillis(),config.getSpillCodec());
+        }
+        if(config.isPersistenceFlg() && config.isAsyncFlg()){
+            this.dispatcher = new OpRecordDispatcher(persistenceService,config.getQueueCapacity(),config.getWorkerThreads(),config.getOverflowPolicy(),config.getBatchSize(),config.getLingerMillis(),spillLog,config.isPhaseTimingFlg());
+        }
+        if(sinks!=null && !sinks.isEmpty()){
+            List<OpRecordDispatcher> dispatchers = new ArrayList<>(sinks.size());
+            for(OpRecordSink sink : sinks){
+                if(sink.getPersistenceService() == null){
+                    throw new Exception("OpRecordSink " + sink.getName() + " persistenceService is null !");
+                }
+                if(sink.getFilter() == null){
+                    throw new Exception("OpRecordSink " + sink.getName() + " filter is null !");
+                }
+                dispatchers.add(new OpRecordDispatcher("op-record-sink-" + sink.getName(), sink.getPersistenceService(), sink.getQueueCapacity(),
+                        sink.getWorkerThreads(), sink.getOverflowPolicy(), sink.getBatchSize(), sink.getLingerMillis(), null, config.isPhaseTimingFlg()));
+            }
+            this.sinks = Collections.unmodifiableList(new ArrayList<>(sinks));
+            this.sinkDispatchers = Collections.unmodifiableList(dispatchers);
+        }
+        this.governor = new OpRecordGovernor(config, dispatcher);
+        if(config.isIdFlg()){
+            this.idGenerator = new OpRecordIdGenerator(config.getNodeId());
+        }
+        this.errorFingerprints = new OpRecordErrorFingerprints(config.getErrorFingerprintCapacity(),config.getErrorFingerprintFrames(),config.getErrorStackMaxChars());
+        this.aggregator = new OpRecordAggregator(config.getAggregateWindowMillis(), this::record);
         log.debug("OpRecordAspect Init success!");
     }
 
 
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) {
+        if(beanFactory instanceof ListableBeanFactory){
+            this.beanFactory = (ListableBeanFactory) beanFactory;
+        }
+    }
+
+    /**
+     * 启动时编译所有bean中被@OpRecordAnnotation注解的方法并确定其额外的持久化目标, 有不合法的注解时启动失败
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if(beanFactory==null){
+            return;
+        }
+        List<String> errors = new ArrayList<>();
+        Set<Class<?>> checked = new HashSet<>();
+        for(String beanName : beanFactory.getBeanDefinitionNames()){
+            Class<?> type = beanFactory.getType(beanName, false);
+            if(type==null || !checked.add(ClassUtils.getUserClass(type))){
+                continue;
+            }
+            for(Method method : ReflectionUtils.getUniqueDeclaredMethods(ClassUtils.getUserClass(type))){
+                if(!method.isAnnotationPresent(OpRecordAnnotation.class)){
+                    continue;
+                }
+                try {
+                    OpRecordMethodPlan plan = getMethodPlan(method);
+                    if(!sinks.isEmpty()){
+                        sinkRoutes(plan);
+                    }
+                }catch (RuntimeException e){
+                    errors.add(method + " : " + e.getMessage());
+                }
+            }
+        }
+        if(!errors.isEmpty()){
+            throw new IllegalStateException("invalid @OpRecordAnnotation : " + errors);
+        }
+    }
+
+
+    @Override
+    public void destroy() {
+        // 先完成延迟序列化的记录和聚合的汇总记录, 再关闭持久化
+        serializer.shutdown(config.getShutdownTimeoutMillis());
+        aggregator.shutdown();
+        if(dispatcher!=null){
+            dispatcher.shutdown(config.getShutdownTimeoutMillis());
+        }
+        for(OpRecordDispatcher sinkDispatcher : sinkDispatchers){
+            sinkDispatcher.shutdown(config.getShutdownTimeoutMillis());
+        }
+        if(spillLog!=null){
+            spillLog.shutdown();
+        }
+        if(parallelMasker!=null){
+            parallelMasker.shutdown();
+        }
+        if(compressor!=null){
+            compressor.shutdown();
+        }
+    }
+
+
+    /**
+     * 设置监控指标的实现, 默认为空操作
+     */
+    public void setMetrics(OpRecordMetrics metrics) {
+        this.metrics = metrics == null ? OpRecordMetrics.NOOP : metrics;
+        if(dispatcher!=null){
+            dispatcher.setMetrics(this.metrics);
+        }
+        for(OpRecordDispatcher sinkDispatcher : sinkDispatchers){
+            sinkDispatcher.setMetrics(this.metrics);
+        }
+    }
+
+    public OpRecordMetrics getMetrics() {
+        return metrics;
+    }
+
+
+    /**
+     * 本地溢出日志, 用于查看溢出、重新持久化的记录数. 未开启时为null
+     */
+    public OpRecordSpillLog getSpillLog() {
+        return spillLog;
+    }
+
+
+    /**
+     * 自动降级的控制器, 用于查看当前的降级级别
+     */
+    public OpRecordGovernor getGovernor() {
+        return governor;
+    }
+
+
+    /**
+     * 延迟序列化的线程池, 用于查看队列深度等
+     */
+    public OpRecordSerializer getSerializer() {
+        return serializer;
+    }
+
+
+    /**
+     * 异步持久化分发器, 用于查看队列深度、丢弃数等. 未开启异步持久化时为null
+     */
+    public OpRecordDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+
+
+    /**
+     * 额外的持久化目标的分发器, 用于查看每个目标的队列深度、丢弃数等. 下标与构造时的sinks一致
+     */
+    public List<OpRecordDispatcher> getSinkDispatchers() {
+        return sinkDispatchers;
+    }
+
+
 
     @Pointcut("@annotation(com.zxl.op_record_log.OpRecordAnnotation)")
     public void point() {
@@ -75,52 +330,446 @@ public class OpRecordAspect {
     @Around("point()")
     public Object around(ProceedingJoinPoint pjp) throws Throwable{
         long startTime = System.currentTimeMillis();
-        ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
-        HttpServletRequest request = attributes.getRequest();
         Signature signature = pjp.getSignature();
         MethodSignature methodSignature = (MethodSignature) signature;
         Method method = methodSignature.getMethod();
 
-        OpRecordAnnotation annotation = method.getAnnotation(OpRecordAnnotation.class);
+        OpRecordMethodPlan plan = getMethodPlanOrNull(method);
+        if(plan==null){
+            return pjp.proceed();
+        }
+        OpRecordAnnotation annotation = plan.getAnnotation();
+
+        // 操作人账号
+        String account = authContext.getAccountFromRequest();
+
+        ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
+        HttpServletRequest request = attributes.getRequest();
+
+        // 聚合模式: 每个窗口只有前aggregateSamples次调用记录完整的报文, 其余的调用只进行统计
+        if(annotation.aggregate()
+                && !aggregator.takeSample(plan, account, request.getRequestURI(), request.getMethod(), annotation.aggregateSamples())){
+            return proceedAggregated(pjp, plan, account, request);
+        }
+
+        // 未被采样, 不做任何记录
+        if(!annotation.aggregate() && !sampler.sample(plan, account)){
+            return pjp.proceed();
+        }
 
         //  ------  组装操作日志的字段 ------
         OpRecordModelDto dto = new OpRecordModelDto();
 
+        // 记录的id
+        if(idGenerator!=null){
+            dto.setId(idGenerator.nextId());
+        }
+
         // 操作人账号
-        dto.setOpAccount(authContext.getAccountFromRequest());
+        dto.setOpAccount(account);
         // 操作时间
         dto.setOpTime(new Date());
         // 请求的功能
-        dto.setReqFunc(method.getAnnotation(ApiOperation.class).value());
+        dto.setReqFunc(plan.getReqFunc());
         // 请求的url
         dto.setReqUrl(request.getRequestURI());
         // 请求的方式
         dto.setReqMethod(request.getMethod());
 
-        // 请求的报文
-        dto.setReqData(getReqDataJsonStr(annotation, method ,pjp.getArgs()));
+        // 降级级别
+        OpRecordDegradeLevel degradeLevel = governor.level();
+        dto.setDegradeLevel(degradeLevel);
+
+        // 遍历和输出限制, TRUNCATED级别时使用更严格的限制
+        OpRecordLimit limit = degradeLevel == OpRecordDegradeLevel.TRUNCATED
+                ? OpRecordLimit.of(annotation, config).min(new OpRecordLimit(0, config.getDegradeMaxElements(), config.getDegradeMaxBytes()))
+                : OpRecordLimit.of(annotation, config);
+        boolean metadataOnly = degradeLevel == OpRecordDegradeLevel.METADATA_ONLY;
+
+        metrics.recordCall(method);
+
+        // 尾部采样: 执行完成之后再决定是否序列化报文
+        boolean tailSampling = sampler.isTailSampling(plan);
+
+        // 延迟序列化: 函数返回之后在后台线程池中序列化报文
+        boolean lazy = annotation.lazySerialize();
+
+        // 请求的报文. 延迟序列化时只有入参会被修改才在执行之前序列化
+        Object[] args = rawBodyArgs(plan, request, pjp.getArgs());
+        boolean reqSerialized = !tailSampling && !metadataOnly && (!lazy || plan.isArgsSnapshotRequired());
+        if(reqSerialized){
+            serializeReqData(plan, dto, args, limit);
+        }
 
         // 执行被调用的函数，获取执行结果
-        Object result = pjp.proceed();
-        // 响应报文
-        dto.setRespData(getRespDataJsonStr(annotation,method,result));
-        // todo:响应状态
-        // dto.setSuccess(result.getSuccess());
+        Object result;
+        long proceedStart = System.nanoTime();
+        try {
+            result = pjp.proceed();
+        }catch (Throwable e){
+            // 记录失败(例如同步持久化失败)时不能代替被调用的函数抛出的异常
+            try {
+                afterProceed(plan, dto, args, limit, startTime, proceedStart, reqSerialized, null, e, false);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                e.addSuppressed(ex);
+            } catch (Throwable ex) {
+                log.error("op record failed, record is lost : {}", dto, ex);
+                e.addSuppressed(ex);
+            }
+            throw e;
+        }
+
+        // 异步返回值: 在异步结果完成时再记录. 完成的线程可能是Netty、Reactor的事件循环线程,
+        // 只在该线程中记录耗时, 脱敏、序列化和持久化交给后台线程池; 任何异常都不能传递给调用方的异步结果
+        if(result!=null && plan.getAsyncKind()!=OpRecordAsyncSupport.Kind.NONE){
+            int maxElements = limit.getMaxElements() > 0 ? limit.getMaxElements() : MAX_ASYNC_ELEMENTS;
+            return OpRecordAsyncSupport.attach(plan.getAsyncKind(), result, request, maxElements, (value, error) -> {
+                try {
+                    afterProceed(plan, dto, args, limit, startTime, proceedStart, reqSerialized, value, error, true);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Throwable e) {
+                    log.error("op record failed, record is lost : {}", dto, e);
+                }
+            });
+        }
+
+        afterProceed(plan, dto, args, limit, startTime, proceedStart, reqSerialized, result, null, false);
+
+        return result;
+
+    }
+
+
+    /**
+     * 聚合模式下只统计耗时和是否抛出异常, 不组装记录
+     */
+    private Object proceedAggregated(ProceedingJoinPoint pjp, OpRecordMethodPlan plan, String account, HttpServletRequest request) throws Throwable {
+        String reqUrl = request.getRequestURI();
+        String reqMethod = request.getMethod();
+        long startTime = System.currentTimeMillis();
+        Object result;
+        try {
+            result = pjp.proceed();
+        }catch (Throwable e){
+            aggregator.record(plan, account, reqUrl, reqMethod, System.currentTimeMillis() - startTime, true);
+            throw e;
+        }
+
+        if(result!=null && plan.getAsyncKind()!=OpRecordAsyncSupport.Kind.NONE){
+            return OpRecordAsyncSupport.attach(plan.getAsyncKind(), result, request, 0, (value, error) ->
+                    aggregator.record(plan, account, reqUrl, reqMethod, System.currentTimeMillis() - startTime, error!=null));
+        }
+        aggregator.record(plan, account, reqUrl, reqMethod, System.currentTimeMillis() - startTime, false);
+        return result;
+    }
+
+
+    /**
+     * 开启rawBodyFlg时使用已经缓存的原始请求体代替@RequestBody的入参, 不修改传给被调用的函数的入参.
+     *  原始请求体只能在请求线程中获取, 请求结束后请求对象可能被容器回收
+     */
+    private Object[] rawBodyArgs(OpRecordMethodPlan plan, HttpServletRequest request, Object[] args){
+        int index = plan.getBodyParamIndex();
+        if(!config.isRawBodyFlg() || index < 0 || args[index] == null){
+            return args;
+        }
+        OpRecordRawBody body = OpRecordBodyCachingFilter.getRawBody(request);
+        if(body == null){
+            return args;
+        }
+        Object[] copy = args.clone();
+        copy[index] = body;
+        return copy;
+    }
+
+
+    /**
+     * 被调用的函数执行完成(异步返回值为异步结果完成)之后, 记录耗时、序列化剩余的报文并记录
+     * @param reqSerialized 请求报文是否已经在执行之前序列化
+     * @param error 被调用的函数抛出的异常, 没有异常时为null
+     * @param async 是否在异步结果完成的线程中, 为true时剩余的工作都交给后台线程池
+     */
+    private void afterProceed(OpRecordMethodPlan plan, OpRecordModelDto dto, Object[] args, OpRecordLimit limit,
+                              long startTime, long proceedStart, boolean reqSerialized, Object result, Throwable error,
+                              boolean async) throws InterruptedException {
+        long proceedNanos = System.nanoTime() - proceedStart;
+        metrics.recordProceed(plan.getMethod(), proceedNanos);
+        governor.recordBusiness(proceedNanos);
+        if(config.isPhaseTimingFlg()){
+            dto.setProceedNanos(proceedNanos);
+        }
+
         // 执行耗时
         dto.setElapsedTime(System.currentTimeMillis()-startTime);
 
+        // 聚合模式下完整记录的调用同样进行统计
+        if(plan.getAnnotation().aggregate()){
+            aggregator.record(plan, dto.getOpAccount(), dto.getReqUrl(), dto.getReqMethod(), dto.getElapsedTime(), error!=null);
+        }
+
+        boolean tailSampling = sampler.isTailSampling(plan);
+        boolean lazy = plan.getAnnotation().lazySerialize();
+        // 降级为只记录元数据时不序列化报文
+        boolean metadataOnly = dto.getDegradeLevel() == OpRecordDegradeLevel.METADATA_ONLY;
+
+        if(error!=null){
+            metrics.recordError(OpRecordMetrics.ERROR_PROCEED);
+            // 记录异常的调用, 尾部采样时异常的调用总是保留请求报文
+            if(config.isErrorRecordFlg() || tailSampling){
+                dto.setSuccess(false);
+                fillError(dto, error);
+                complete(plan, dto, args, null, limit, !metadataOnly && !reqSerialized, false, lazy, async);
+            }
+            return;
+        }
+
+        // 尾部采样时只有慢调用才保留完整的报文
+        boolean fullPayload = !metadataOnly && (!tailSampling || dto.getElapsedTime() >= sampler.getSlowThresholdMillis(plan));
+        // 没有抛出异常. todo:业务的响应状态
+        // dto.setSuccess(result.getSuccess());
+        dto.setSuccess(true);
+
+        complete(plan, dto, args, result, limit, fullPayload && !reqSerialized, fullPayload, lazy, async);
+    }
+
+
+    /**
+     * 记录异常的摘要, 相同指纹的异常只有第一次记录完整的堆栈
+     */
+    private void fillError(OpRecordModelDto dto, Throwable error){
+        OpRecordErrorFingerprints.Summary summary = errorFingerprints.summarize(error);
+        dto.setErrorType(summary.getType());
+        dto.setErrorMessage(summary.getMessage());
+        dto.setErrorFingerprint(summary.getFingerprint());
+        dto.setErrorStack(summary.getStack());
+        dto.setErrorOccurrence(summary.getOccurrence());
+    }
+
+
+    /**
+     * 序列化剩余的报文并记录. lazy为true且有需要序列化的报文, 或者async为true时交给后台线程池执行
+     * @param withReq 是否序列化请求报文
+     * @param withResp 是否序列化响应报文
+     * @param async 是否在异步结果完成的线程中, 持久化可能阻塞(BLOCK策略)时也不能在该线程中执行
+     */
+    private void complete(OpRecordMethodPlan plan, OpRecordModelDto dto, Object[] args, Object result, OpRecordLimit limit,
+                          boolean withReq, boolean withResp, boolean lazy, boolean async) throws InterruptedException {
+        if(!async && (!lazy || !(withReq || withResp))){
+            fillPayload(plan, dto, args, result, limit, withReq, withResp);
+            record(plan, dto);
+            return;
+        }
+        // 队列已满时由调用线程执行, 任何异常都不能传递给调用线程
+        serializer.execute(() -> {
+            try {
+                fillPayload(plan, dto, args, result, limit, withReq, withResp);
+                record(plan, dto);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                log.error("op record failed, record is lost : {}", dto, e);
+            }
+        });
+    }
+
+    private void fillPayload(OpRecordMethodPlan plan, OpRecordModelDto dto, Object[] args, Object result, OpRecordLimit limit,
+                             boolean withReq, boolean withResp){
+        if(withReq){
+            serializeReqData(plan, dto, args, limit);
+        }
+        if(withResp){
+            serializeRespData(plan, dto, result, limit);
+        }
+    }
+
+
+    /**
+     * 序列化请求报文并记录耗时. 序列化失败时不影响被调用的函数, reqData为null
+     */
+    private void serializeReqData(OpRecordMethodPlan plan, OpRecordModelDto dto, Object[] args, OpRecordLimit limit){
+        long start = System.nanoTime();
+        try {
+            String reqData = getReqDataJsonStr(plan.getAnnotation(), plan.getMethod(), args, limit, parallelMasker);
+            String compressed = compress(plan, dto, reqData);
+            if(compressed!=null){
+                dto.setReqDataSize(reqData.length());
+            }
+            long nanos = System.nanoTime() - start;
+            metrics.recordSerialization(plan.getMethod(), nanos, reqData.length());
+            governor.recordOverhead(nanos);
+            dto.setReqData(compressed!=null ? compressed : reqData);
+            if(config.isPhaseTimingFlg()){
+                dto.setReqSerializeNanos(nanos);
+            }
+        }catch (Exception e){
+            metrics.recordError(OpRecordMetrics.ERROR_SERIALIZATION);
+            log.error("serialize reqData failed : {}", plan.getMethod(), e);
+        }
+    }
+
+    /**
+     * 序列化响应报文并记录耗时. 序列化失败时不影响被调用的函数, respData为null
+     */
+    private void serializeRespData(OpRecordMethodPlan plan, OpRecordModelDto dto, Object result, OpRecordLimit limit){
+        long start = System.nanoTime();
+        try {
+            String respData = getRespDataJsonStr(plan.getAnnotation(), plan.getMethod(), result, limit, parallelMasker);
+            String compressed = compress(plan, dto, respData);
+            if(compressed!=null){
+                dto.setRespDataSize(respData.length());
+            }
+            long nanos = System.nanoTime() - start;
+            metrics.recordSerialization(plan.getMethod(), nanos, respData.length());
+            governor.recordOverhead(nanos);
+            dto.setRespData(compressed!=null ? compressed : respData);
+            if(config.isPhaseTimingFlg()){
+                dto.setRespSerializeNanos(nanos);
+            }
+        }catch (Exception e){
+            metrics.recordError(OpRecordMetrics.ERROR_SERIALIZATION);
+            log.error("serialize respData failed : {}", plan.getMethod(), e);
+        }
+    }
+
+
+    /**
+     * 开启压缩时压缩报文并记录压缩方式
+     * @return 压缩后的报文, 未开启压缩或压缩后没有变小时返回null
+     */
+    private String compress(OpRecordMethodPlan plan, OpRecordModelDto dto, String payload){
+        if(compressor==null){
+            return null;
+        }
+        String compressed = compressor.compress(plan.getMethod(), payload);
+        if(compressed!=null){
+            dto.setPayloadCodec(compressor.getCodec());
+        }
+        return compressed;
+    }
+
+
+    /**
+     * 打印日志并进行持久化
+     */
+    private void record(OpRecordMethodPlan plan, OpRecordModelDto dto) throws InterruptedException {
+        // 聚合模式的汇总记录在输出时才分配id
+        if(idGenerator!=null && dto.getId()==null){
+            dto.setId(idGenerator.nextId());
+        }
+
         // 打印日志
         if(config.isLogFlg()){
             log.info(" 接口调用记录 : {}",dto);
         }
 
+        // 额外的持久化目标, 每个目标使用独立的记录, 避免分发器修改同一个对象.
+        // 在主持久化之前放入队列, 主持久化同步失败抛出异常时不影响额外的目标
+        if(!sinkDispatchers.isEmpty()){
+            List<OpRecordDispatcher> routes = sinkRoutes(plan);
+            for(OpRecordDispatcher sinkDispatcher : routes){
+                sinkDispatcher.dispatch(dto.copy());
+            }
+        }
+
         // 进行持久化
         if(config.isPersistenceFlg()){
-            persistenceService.persistence(dto);
+            if(dispatcher!=null){
+                dispatcher.dispatch(dto);
+            }else {
+                long start = System.nanoTime();
+                try {
+                    persistenceService.persistence(dto);
+                }catch (RuntimeException e){
+                    metrics.recordError(OpRecordMetrics.ERROR_PERSISTENCE);
+                    if(spillLog==null){
+                        throw e;
+                    }
+                    try {
+                        spillLog.append(Collections.singletonList(dto));
+                        log.warn("op record persistence failed, record is spilled : {}", e.toString());
+                    }catch (IOException ex){
+                        log.error("op record spill failed, record is lost : {}", dto, ex);
+                    }
+                    return;
+                }
+                metrics.recordPersistence(1, System.nanoTime() - start);
+            }
         }
+    }
 
-        return result;
+    /**
+     * 方法需要持久化到的额外目标, 每个方法只按OpRecordSinkFilter判断一次.
+     *   bean中的方法在启动时已经确定, 这里只是查找; 启动时没有检查到的方法在第一次调用时确定
+     */
+    private List<OpRecordDispatcher> sinkRoutes(OpRecordMethodPlan plan){
+        List<OpRecordDispatcher> routes = sinkRoutes.get(plan.getMethod());
+        if(routes==null){
+            routes = sinkRoutes.computeIfAbsent(plan.getMethod(), m -> {
+                List<OpRecordDispatcher> list = new ArrayList<>();
+                for(int i=0;i<sinks.size();i++){
+                    if(sinks.get(i).getFilter().accept(plan)){
+                        list.add(sinkDispatchers.get(i));
+                    }
+                }
+                return list.isEmpty() ? Collections.emptyList() : list;
+            });
+        }
+        return routes;
+    }
 
+
+    /**
+     * 获取方法的处理计划，不存在时进行编译并缓存
+     */
+    public static OpRecordMethodPlan getMethodPlan(Method method){
+        OpRecordMethodPlan plan = APPROVED_PLAN.get(method);
+        if(plan==null){
+            plan = APPROVED_PLAN.computeIfAbsent(method, OpRecordAspect::compileMethodPlan);
+        }
+        return plan;
+    }
+
+    /**
+     * 获取方法的处理计划, 无法编译时记录一次错误日志并返回null
+     */
+    private static OpRecordMethodPlan getMethodPlanOrNull(Method method){
+        OpRecordMethodPlan plan = APPROVED_PLAN.get(method);
+        if(plan!=null || REJECTED_PLAN.contains(method)){
+            return plan;
+        }
+        try {
+            return getMethodPlan(method);
+        }catch (RuntimeException e){
+            if(REJECTED_PLAN.add(method)){
+                log.error("compile op record plan failed, {} will not be recorded", method, e);
+            }
+            return null;
+        }
+    }
+
+    private static OpRecordMethodPlan compileMethodPlan(Method method){
+        OpRecordAnnotation annotation = method.getAnnotation(OpRecordAnnotation.class);
+
+        ApiOperation apiOperation = method.getAnnotation(ApiOperation.class);
+        String reqFunc = apiOperation == null ? null : apiOperation.value();
+
+        // method的所有入参名称
+        List<String> paramNames = Arrays.stream(method.getParameters())
+                .map(Parameter::getName)
+                .collect(Collectors.toList());
+
+        // 异步返回值使用泛型参数的类型
+        OpRecordAsyncSupport.Kind asyncKind = OpRecordAsyncSupport.kindOf(method.getReturnType());
+        Class<?> returnValueType = OpRecordAsyncSupport.resolveValueType(method, asyncKind);
+
+        // 返回值类型所有的字段的名称(包含父类的字段)
+        List<String> returnFieldNames = OpRecordFieldAccessor.of(returnValueType).getFieldNames();
+
+        return new OpRecordMethodPlan(method, annotation, reqFunc, paramNames, asyncKind, returnValueType, returnFieldNames,
+                buildAstByDtLevel(annotation.reqDtLevel(), annotation.reqDtFields()),
+                buildAstByDtLevel(annotation.respDtLevel(), annotation.respDtFields()));
     }
 
 
@@ -193,15 +842,18 @@ public class OpRecordAspect {
 
 
     private static DesensitizationField getAstFromCache(Method method, String exp) {
-        Map<String,DesensitizationField> all = APPROVED_EXP.get(method);
+        OpRecordMethodPlan plan = method == null ? null : APPROVED_PLAN.get(method);
 
-        if( all==null){
+        if( plan==null){
             return null;
         }
 
         List<String> link = OpRecordAspect.parseExpToLink(exp);
 
-        DesensitizationField existAst = all.get(link.get(0));
+        DesensitizationField existAst = plan.getReqAst().get(link.get(0));
+        if(existAst==null){
+            existAst = plan.getRespAst().get(link.get(0));
+        }
 
         if(existAst==null){
             return null;
@@ -209,7 +861,7 @@ public class OpRecordAspect {
 
         DesensitizationField node=existAst;
         for(int i=1;i<link.size();i++){
-            if(node.getFieldMap().containsKey(link.get(i))){
+            if(node.getFieldMap()!=null && node.getFieldMap().containsKey(link.get(i))){
                 node = node.getFieldMap().get(link.get(i));
             }else {
                 return null;
@@ -289,44 +941,68 @@ public class OpRecordAspect {
      * @return
      */
     public static String getRespDataJsonStr(OpRecordAnnotation annotation , Method method, Object returnObj) throws Exception {
+        return getRespDataJsonStr(annotation, method, returnObj, OpRecordLimit.of(annotation, null));
+    }
 
-        // 脱敏字段转换为ast
-        Map<String,DesensitizationField> ast = buildAstByDtLevel(method,annotation.respDtLevel(),annotation.respDtFields());
-        assert ast != null;
+    /**
+     * 获取响应报文的json格式字符串, 遍历和输出超出limit时进行截断
+     */
+    public static String getRespDataJsonStr(OpRecordAnnotation annotation , Method method, Object returnObj, OpRecordLimit limit) throws Exception {
+        return getRespDataJsonStr(annotation, method, returnObj, limit, null);
+    }
 
-        // 返回值类型所有的字段的名称
-        List<String> fieldNameList = Arrays.stream(method.getReturnType().getDeclaredFields())
-                .map(Field::getName)
-                .collect(Collectors.toList());
+    /**
+     * 获取响应报文的json格式字符串, 大数组使用parallelMasker并行脱敏
+     * @param parallelMasker 为null时不使用并行脱敏
+     */
+    public static String getRespDataJsonStr(OpRecordAnnotation annotation , Method method, Object returnObj, OpRecordLimit limit, OpRecordParallelMasker parallelMasker) throws Exception {
 
-        // 返回值所有字段的field
-        Map<String,Field> returnObjFieldMap=getClassFieldMap(returnObj.getClass());
+        OpRecordMethodPlan plan = getMethodPlan(method);
 
-        JSONArray data= new JSONArray();
-        for(int i=0;i<fieldNameList.size();i++ ){
-            String fieldName = fieldNameList.get(i);
-            Field returnField = returnObjFieldMap.get(fieldName);
-            returnField.setAccessible(true);
-            data.set(i,processDtField(annotation.respDtLevel(),ast.get(fieldName),fieldName,returnField.get(returnObj),annotation.symbol()));
+        // Flux的返回值为所有元素的List, 每个元素分别输出
+        if(plan.getAsyncKind()==OpRecordAsyncSupport.Kind.FLUX && returnObj instanceof List){
+            StringJoiner joiner = new StringJoiner(",", "[", "]");
+            for(Object element : (List<?>) returnObj){
+                joiner.add(writeRespData(plan, element, limit, parallelMasker));
+            }
+            return joiner.toString();
         }
-
-        return data.toJSONString();
+        return writeRespData(plan, returnObj, limit, parallelMasker);
     }
 
-    public static Map<String,Field> getClassFieldMap(Class<?> clazz){
-        if(CACHE_FIELD.containsKey(clazz)){
-            return CACHE_FIELD.get(clazz);
-        }
+    private static String writeRespData(OpRecordMethodPlan plan, Object returnObj, OpRecordLimit limit, OpRecordParallelMasker parallelMasker){
+        OpRecordAnnotation annotation = plan.getAnnotation();
 
-        Map<String,Field> returnObjFieldMap=Arrays.stream(clazz.getDeclaredFields())
-                .collect(Collectors.toMap(Field::getName, Function.identity()));
+        // 全部脱敏且返回值类型已知时直接拼接预先生成的json
+        if(plan.getRespAllData()!=null && fitsLimit(plan.getRespAllData(), limit)
+                && (plan.getAsyncKind()==OpRecordAsyncSupport.Kind.NONE || plan.getReturnValueType()!=Object.class)){
+            return respAllData(plan, returnObj);
+        }
 
-        CACHE_FIELD.put(clazz,returnObjFieldMap);
+        // 脱敏字段的ast
+        Map<String,DesensitizationField> ast = plan.getRespAst();
 
-        return returnObjFieldMap;
-    }
+        try(OpRecordJsonWriter writer = new OpRecordJsonWriter(annotation.symbol(), limit, parallelMasker)){
+            writer.startArray();
+            if(returnObj!=null){
+                // 返回值所有字段的读取器
+                OpRecordFieldAccessor accessor = OpRecordFieldAccessor.of(returnObj.getClass());
 
+                // 返回值类型所有的字段的名称. 异步返回值的泛型无法解析时使用实际的类型
+                List<String> fieldNameList = plan.getAsyncKind()!=OpRecordAsyncSupport.Kind.NONE && plan.getReturnValueType()==Object.class
+                        ? accessor.getFieldNames() : plan.getReturnFieldNames();
 
+                for (String fieldName : fieldNameList) {
+                    OpRecordFieldAccessor.FieldGetter getter = accessor.getGetter(fieldName);
+                    if(getter!=null){
+                        writer.processDtField(annotation.respDtLevel(), ast.get(fieldName), getter, returnObj);
+                    }
+                }
+            }
+            writer.endArray();
+            return writer.toString();
+        }
+    }
 
     /**
      * 获取请求入参的json格式字符串
@@ -337,263 +1013,150 @@ public class OpRecordAspect {
      * @return
      */
     public static String getReqDataJsonStr(OpRecordAnnotation annotation ,Method method , Object[] args) {
+        return getReqDataJsonStr(annotation, method, args, OpRecordLimit.of(annotation, null));
+    }
 
-        // 脱敏字段转换为ast
-        Map<String,DesensitizationField> ast = buildAstByDtLevel(method,annotation.reqDtLevel(),annotation.reqDtFields());
+    /**
+     * 获取请求入参的json格式字符串, 遍历和输出超出limit时进行截断
+     */
+    public static String getReqDataJsonStr(OpRecordAnnotation annotation ,Method method , Object[] args, OpRecordLimit limit) {
+        return getReqDataJsonStr(annotation, method, args, limit, null);
+    }
 
-        // method的所有入参名称
-        List<String> fieldNameList =Arrays.stream(method.getParameters())
-                .map(Parameter::getName)
-                .collect(Collectors.toList());
+    /**
+     * 获取请求入参的json格式字符串, 大数组使用parallelMasker并行脱敏
+     * @param parallelMasker 为null时不使用并行脱敏
+     */
+    public static String getReqDataJsonStr(OpRecordAnnotation annotation ,Method method , Object[] args, OpRecordLimit limit, OpRecordParallelMasker parallelMasker) {
 
-        JSONArray data= new JSONArray();
-        for(int i=0;i<fieldNameList.size();i++ ){
-            String fieldName = fieldNameList.get(i);
-            data.set(i,processDtField(annotation.reqDtLevel(),ast.get(fieldName),fieldName,args[i],annotation.symbol()));
-        }
+        OpRecordMethodPlan plan = getMethodPlan(method);
 
-        return data.toJSONString();
-    }
+        // method的所有入参名称
+        List<String> fieldNameList = plan.getParamNames();
 
-    public static Object processDtField(DesensitizationLevel level,  DesensitizationField dField,  String fieldName, Object arg,String symbol){
-        JSONObject result = new JSONObject();
-        Object value = null;
+        // 全部脱敏时直接拼接预先生成的json
+        if(plan.getReqAllData()!=null && fitsLimit(plan.getReqAllData(), limit)){
+            return reqAllData(plan, args);
+        }
 
-        if(arg!=null){
-            if(dField==null){
-                value = JSONObject.toJSON(arg);
+        try(OpRecordJsonWriter writer = new OpRecordJsonWriter(annotation.symbol(), limit, parallelMasker)){
+            writer.startArray();
+            if(annotation.reqDtLevel()==DesensitizationLevel.PART){
+                // 脱敏字段的ast
+                Map<String,DesensitizationField> ast = plan.getReqAst();
+                for(int i=0;i<fieldNameList.size();i++ ){
+                    String fieldName = fieldNameList.get(i);
+                    writer.processDtField(DesensitizationLevel.PART, ast.get(fieldName), fieldName, args[i]);
+                }
             }else {
-                // 根据level处理
-                switch (level){
-                    case ALL:
-                        value=symbol;
-                        break;
-                    case NO:
-                        value = JSONObject.toJSON(arg);
-                        break;
-                    case PART:
-                        value = processDtFieldByType(level,dField,arg,symbol);
-                        break;
+                for(int i=0;i<fieldNameList.size();i++ ){
+                    writer.processDtField(annotation.reqDtLevel(), null, fieldNameList.get(i), args[i]);
                 }
             }
+            writer.endArray();
+            return writer.toString();
         }
-
-       result.put(fieldName,value);
-
-        return result;
     }
 
-    private static Object processDtFieldByType(DesensitizationLevel level,DesensitizationField dField, Object arg, String symbol) {
-        switch (dField.getType()){
-            case SIMPLE:
-                if(dField.getFieldMap()==null){
-                    return symbol;
-                }else {
-                    return processDtFieldByNextLayer(level,dField,arg,symbol);
-                }
-            case ARRAY:
-                // arg转换为数组
-                JSONArray array=null;
-                if(arg.getClass().isArray()){
-                    array = (JSONArray)JSONArray.toJSON(arg);
-                }else if (arg instanceof JSONArray){
-                    array=(JSONArray) arg;
-                }
-                if(array!=null){
-                    return processDesensitizationArrayField(dField,array,symbol);
-                }
 
-            default:
-                // do nothing
-        }
-        return null;
+    /**
+     * 预先生成的json的字符数小于maxBytes时不会被截断
+     */
+    private static boolean fitsLimit(String allData, OpRecordLimit limit){
+        return limit==null || limit.getMaxBytes() <= 0 || allData.length() < limit.getMaxBytes();
     }
 
+    /**
+     * 全部脱敏的请求报文. 入参都不为null时返回预先生成的json, 否则按顺序拼接每个入参的json, 值为null的入参输出{}
+     */
+    private static String reqAllData(OpRecordMethodPlan plan, Object[] args){
+        String[] fragments = plan.getReqAllFragments();
+        int nullIndex = 0;
+        while (nullIndex < fragments.length && args[nullIndex]!=null){
+            nullIndex++;
+        }
+        if(nullIndex == fragments.length){
+            return plan.getReqAllData();
+        }
 
-    private static Object processDtFieldByNextLayer(DesensitizationLevel level,DesensitizationField dField, Object arg, String symbol){
-        JSONObject jsonObject = arg instanceof JSONObject ? (JSONObject)arg : (JSONObject)JSONObject.toJSON(arg);
-        for(String fieldName : jsonObject.keySet()){
-            jsonObject.put(fieldName,processDtField(level,dField.getFieldMap().get(fieldName),fieldName,jsonObject.get(fieldName),symbol ));
+        StringBuilder builder = new StringBuilder(plan.getReqAllData().length()).append('[');
+        for(int i=0;i<fragments.length;i++){
+            if(i>0){
+                builder.append(',');
+            }
+            builder.append(args[i]!=null ? fragments[i] : "{}");
         }
-        return jsonObject;
+        return builder.append(']').toString();
     }
 
-
     /**
-     * 获取脱敏后的json字符串
-     * @param level
-     * @param ast
-     * @param symbol
-     * @param args
-     * @return
+     * 全部脱敏的响应报文. 只读取引用类型的字段判断是否为null, 不进行序列化
      */
-   private static String getDesensitizationJsonStr(DesensitizationLevel level, Map<String, DesensitizationField> ast, String symbol, List<String> nameArray, Object[] args){
-       JSONArray jsonArray = new JSONArray();
-
-       for(int i=0;i<nameArray.size();i++){
-           JSONObject jsonObject = new JSONObject();
-
-           String fieldName = nameArray.get(i);
-           Object value = null;
-           switch (level){
-               case ALL:
-                   // 全脱敏
-                   value=symbol;
-                   break;
-               case NO:
-                   // 不脱敏
-                   value= JSONObject.toJSON(args[i]);
-                   break;
-               case PART:
-                   // 部分脱敏
-                   JSONObject json = (JSONObject)JSONObject.toJSON(args[i]);
-                   value = astMaybe2Json(ast,fieldName,json,symbol);
-                   break;
-               default:
-                   // do nothing
-           }
-           jsonObject.put(fieldName,value);
-           jsonArray.add(jsonObject);
-       }
-
-       return jsonArray.toJSONString();
-
-
-   }
-
-    private static Object astMaybe2Json(Map<String, DesensitizationField> ast, String fieldName, JSONObject arg, String symbol) {
-       // fieldName不是脱敏字段
-       if(!ast.containsKey(fieldName)){
-           return arg;
-       }else {
-           // 是脱敏字段
-           return processDesensitizationField(ast.get(fieldName),arg,symbol);
-       }
-    }
-
-    private static Object processDesensitizationField(DesensitizationField dField,JSONObject arg, String symbol) {
-
-       if(arg==null){
-           return null;
-       }
-
-       // todo:
-        switch (dField.getType()){
-            case SIMPLE:
-                if(dField.getFieldMap()==null){
-                    arg.put(dField.getKeyName(),symbol);
-                    return arg;
-                }else {
-                    return processDesensitizationSubLayer(dField,arg,symbol);
-                }
-            case ARRAY:
-                // arg是数组或者List
-                if(arg.getClass().isArray() || arg instanceof List){
-                    JSONArray array = (JSONArray)JSONArray.toJSON(arg);
-                    return processDesensitizationArrayField(dField,array,symbol);
-                }
-
-            default:
-                // do nothing
+    private static String respAllData(OpRecordMethodPlan plan, Object returnObj){
+        if(returnObj==null){
+            return "[]";
         }
-
-       return null;
-    }
-
-    private static Object processDesensitizationSubLayer(DesensitizationField dField, JSONObject arg, String symbol) {
-
-       for(Map.Entry<String,DesensitizationField> entry:dField.getFieldMap().entrySet()){
-           if(arg.containsKey(entry.getKey())){
-               Object newArg = arg.get(entry.getKey());
-               DesensitizationField subField = dField.getFieldMap().get(entry.getKey());
-               if(subField!=null){
-                   arg.put(entry.getKey(), symbol);
-               }else {
-                   arg.put(entry.getKey(), processDesensitizationField(dField.getFieldMap().get(entry.getKey()),(JSONObject)JSONObject.toJSON(newArg),symbol ));
-               }
-
-           }
-       }
-       return arg;
-    }
-
-    private static Object processDesensitizationArrayField(DesensitizationField dField, JSONArray array, String symbol) {
-        // 没有下一层得标识
-        boolean notHadNextLevel=dField.getFieldMap()==null;
-       for(int i=0;i< array.size(); i++){
-          // 当前元素的小标是否符合表达式的标识
-           boolean match=matchArrayExpValue(i,dField.getArrayExps());
-               if(match){
-                    if(notHadNextLevel){
-                        array.set(i,symbol);
-                    }else {
-                        // 有下一层
-                        for(Map.Entry<String,DesensitizationField> entrySet:dField.getFieldMap().entrySet()){
-                            Object arg = array.get(i);
-                            JSONObject jsonObject = null;
-                            if(arg instanceof JSONObject){
-                                jsonObject=(JSONObject)arg;
-                            }else {
-                                jsonObject=(JSONObject)JSONObject.toJSON(arg);
-                            }
-                            Object value= processDesensitizationField(dField.getFieldMap().get(entrySet.getKey()),jsonObject,symbol);
-                            array.set(i,value);
-                        }
+        OpRecordFieldAccessor accessor = OpRecordFieldAccessor.of(returnObj.getClass());
+        List<String> fieldNameList = plan.getReturnFieldNames();
+        String[] fragments = plan.getRespAllFragments();
+
+        StringBuilder builder = null;
+        for(int i=0;i<fragments.length;i++){
+            OpRecordFieldAccessor.FieldGetter getter = accessor.getGetter(fieldNameList.get(i));
+            // 基本类型的字段不会为null, 不需要读取
+            boolean present = getter!=null && (getter.isPrimitive() || getter.get(returnObj)!=null);
+            if(builder==null){
+                if(present){
+                    continue;
+                }
+                // 第一个不能直接使用预先生成的json的字段, 复制之前的字段
+                builder = new StringBuilder(plan.getRespAllData().length()).append('[');
+                for(int j=0;j<i;j++){
+                    if(j>0){
+                        builder.append(',');
                     }
-               }
-       }
-
-       return array;
-   }
-
-
-
-    private static boolean matchArrayExpValue(int i, List<ArrayExpValue> arrayExps) {
-        for (ArrayExpValue expValue : arrayExps) {
-            // 星号
-            if (expValue.getMode().equals(ArrayExpValue.ArrayExpMode.ASTERISK)
-                    //按数组下标精确匹配
-                    || (expValue.getMode().equals(ArrayExpValue.ArrayExpMode.PRECISE) && Integer.parseInt(expValue.getLeft()) == i)
-                    // 范围匹配
-                    || (expValue.getMode().equals(ArrayExpValue.ArrayExpMode.RANG) && i >= Integer.parseInt(expValue.getLeft()) && i >= Integer.parseInt(expValue.getRight()))
-                    // 小于
-                    || (expValue.getMode().equals(ArrayExpValue.ArrayExpMode.LESS) && i < Integer.parseInt(expValue.getRight()))
-                    //  小于等于
-                    || (expValue.getMode().equals(ArrayExpValue.ArrayExpMode.LESS_EQ) && i <= Integer.parseInt(expValue.getRight()))
-                    //  大于
-                    || (expValue.getMode().equals(ArrayExpValue.ArrayExpMode.GREATER) && i > Integer.parseInt(expValue.getLeft()))
-                    // 大于等于
-                    || (expValue.getMode().equals(ArrayExpValue.ArrayExpMode.GREATER_EQ) && i >= Integer.parseInt(expValue.getLeft()))
-            ) {
-                return true;
+                    builder.append(fragments[j]);
+                }
+            }
+            if(getter==null){
+                continue;
             }
+            if(builder.length()>1){
+                builder.append(',');
+            }
+            builder.append(present ? fragments[i] : "{}");
         }
-        return false;
+        return builder==null ? plan.getRespAllData() : builder.append(']').toString();
     }
 
 
-    private static Map<String, DesensitizationField> buildAstByDtLevel(Method method,DesensitizationLevel level, String[] exps) {
+    private static Map<String, DesensitizationField> buildAstByDtLevel(DesensitizationLevel level, String[] exps) {
         if (Objects.requireNonNull(level) == DesensitizationLevel.PART) {
             Map<String, DesensitizationField> ast = new HashMap<>();
             for (String exp : exps) {
                 // 脱敏字段转换为ast
-                DesensitizationField dField = buildAst(method, exp, true);
+                DesensitizationField dField = buildAst(null, exp, false);
+                if(dField==null){
+                    continue;
+                }
                 if (ast.containsKey(dField.getKeyName())) {
                     mergeDesensitizationField(ast.get(dField.getKeyName()), dField);
                 } else {
                     ast.put(dField.getKeyName(), dField);
                 }
             }
-            if (!APPROVED_EXP.containsKey(method)) {
-                APPROVED_EXP.put(method, ast);
-            }
             return ast;
         }
-        return null;
+        return Collections.emptyMap();
 
     }
 
     private static void mergeDesensitizationField(DesensitizationField dField1, DesensitizationField dField2) {
+       // 其中一个没有下一层，说明整个字段都需要脱敏
+       if(dField1.getFieldMap()==null || dField2.getFieldMap()==null){
+           dField1.setFieldMap(null);
+           return;
+       }
        for(Map.Entry<String, DesensitizationField> entry : dField2.getFieldMap().entrySet()){
            if(!dField1.getFieldMap().containsKey(entry.getKey())){
                dField1.getFieldMap().put(entry.getKey(),entry.getValue());
@@ -699,6 +1262,35 @@ public class OpRecordAspect {
     }
 
 
+    /**
+     *   流式脱敏, 逐个扫描json的token, 不需要脱敏的部分原样复制, 内存占用与报文大小无关. 不会关闭reader和writer
+     * @see OpRecordStreamingMasker
+     */
+    public static void desensitization(Reader reader, Writer writer, Map<String, DesensitizationField> fieldNameMap , String symbol , boolean allFlg) throws Exception{
+        checkDesensitizationArgs(fieldNameMap, symbol, allFlg);
+        new OpRecordStreamingMasker(fieldNameMap, symbol, allFlg).mask(reader, writer);
+    }
+
+    /**
+     *   流式脱敏, 以UTF-8编码读取和写入. 不会关闭输入输出流
+     * @see OpRecordStreamingMasker
+     */
+    public static void desensitization(InputStream input, OutputStream output, Map<String, DesensitizationField> fieldNameMap , String symbol , boolean allFlg) throws Exception{
+        checkDesensitizationArgs(fieldNameMap, symbol, allFlg);
+        OpRecordStreamingMasker.mask(input, output, fieldNameMap, symbol, allFlg);
+    }
+
+    private static void checkDesensitizationArgs(Map<String, DesensitizationField> fieldNameMap , String symbol , boolean allFlg) throws Exception{
+        if(StringUtils.isEmpty(symbol)){
+            throw new Exception("symbol is null!");
+        }
+
+        if(!allFlg && CollectionUtils.isEmpty(fieldNameMap)){
+            throw new Exception("desensitization failed ! fieldNameSet is null.");
+        }
+    }
+
+
     public static void replaceJsonValue(JSONObject obj, Map<String, DesensitizationField> fieldMap , String newValue,boolean allFlg){
         obj.entrySet()
                 .forEach(e->{
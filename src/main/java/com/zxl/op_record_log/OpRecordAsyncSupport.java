@@ -0,0 +1,237 @@
+package com.zxl.op_record_log;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.ResolvableType;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 异步返回值的支持.
+ *   被调用的函数返回CompletableFuture(CompletionStage)、DeferredResult、Callable、WebAsyncTask,
+ *   以及classpath中存在reactor-core时的Mono、Flux时, 在异步结果完成时回调, 记录真实的返回值和端到端的耗时, 不阻塞任何线程.
+ *
+ *   DeferredResult、Callable、WebAsyncTask通过当前请求的WebAsyncManager注册拦截器, 因此只在Spring MVC处理请求时生效.
+ *   回调在完成异步结果的线程中执行, 回调抛出的任何异常(包括Error)都只记录日志, 不会传递给调用方的异步结果
+ */
+@Slf4j
+public final class OpRecordAsyncSupport {
+
+    private static final boolean REACTOR_PRESENT =
+            ClassUtils.isPresent("reactor.core.publisher.Mono", OpRecordAsyncSupport.class.getClassLoader());
+
+    /**
+     * 返回值的异步类型
+     */
+    public enum Kind {
+        /**
+         * 同步返回值
+         */
+        NONE,
+        COMPLETION_STAGE,
+        DEFERRED_RESULT,
+        CALLABLE,
+        WEB_ASYNC_TASK,
+        MONO,
+        /**
+         * Flux的所有元素作为一个List回调
+         */
+        FLUX
+    }
+
+    /**
+     * 异步结果完成时的回调, value和error只有一个不为null
+     */
+    @FunctionalInterface
+    public interface Completion {
+        void complete(Object value, Throwable error);
+    }
+
+
+    private OpRecordAsyncSupport() {
+    }
+
+
+    /**
+     * 根据返回值类型判断异步类型
+     */
+    public static Kind kindOf(Class<?> returnType){
+        if(CompletionStage.class.isAssignableFrom(returnType)){
+            return Kind.COMPLETION_STAGE;
+        }
+        if(DeferredResult.class.isAssignableFrom(returnType)){
+            return Kind.DEFERRED_RESULT;
+        }
+        if(WebAsyncTask.class.isAssignableFrom(returnType)){
+            return Kind.WEB_ASYNC_TASK;
+        }
+        if(Callable.class.isAssignableFrom(returnType)){
+            return Kind.CALLABLE;
+        }
+        if(REACTOR_PRESENT){
+            return OpRecordReactorSupport.kindOf(returnType);
+        }
+        return Kind.NONE;
+    }
+
+
+    /**
+     * 解析方法返回值中真实的值的类型, 例如CompletableFuture<UserDto>返回UserDto. 无法解析泛型时返回Object
+     */
+    public static Class<?> resolveValueType(Method method, Kind kind){
+        ResolvableType returnType = ResolvableType.forMethodReturnType(method);
+        Class<?> asyncType;
+        switch (kind){
+            case COMPLETION_STAGE:
+                asyncType = CompletionStage.class;
+                break;
+            case DEFERRED_RESULT:
+                asyncType = DeferredResult.class;
+                break;
+            case WEB_ASYNC_TASK:
+                asyncType = WebAsyncTask.class;
+                break;
+            case CALLABLE:
+                asyncType = Callable.class;
+                break;
+            case MONO:
+            case FLUX:
+                asyncType = OpRecordReactorSupport.asyncType(kind);
+                break;
+            default:
+                return method.getReturnType();
+        }
+        return returnType.as(asyncType).getGeneric(0).resolve(Object.class);
+    }
+
+
+    /**
+     * 在异步结果完成时回调completion, completion最多被调用一次
+     * @param maxElements Flux最多保留的元素个数
+     * @return 被调用的函数应该返回的值. Mono、Flux返回增加了回调的新实例, 其他类型返回result本身
+     */
+    public static Object attach(Kind kind, Object result, HttpServletRequest request, int maxElements, Completion completion){
+        Completion once = once(completion);
+        switch (kind){
+            case COMPLETION_STAGE:
+                ((CompletionStage<?>) result).whenComplete((value, error) -> once.complete(value, unwrap(error)));
+                return result;
+            case DEFERRED_RESULT:
+                asyncManager(request).registerDeferredResultInterceptor(new Object(), new DeferredResultInterceptor(once));
+                return result;
+            case CALLABLE:
+            case WEB_ASYNC_TASK:
+                asyncManager(request).registerCallableInterceptor(new Object(), new CallableInterceptor(once));
+                return result;
+            case MONO:
+            case FLUX:
+                return OpRecordReactorSupport.attach(kind, result, maxElements, once);
+            default:
+                once.complete(result, null);
+                return result;
+        }
+    }
+
+
+    private static WebAsyncManager asyncManager(HttpServletRequest request){
+        return WebAsyncUtils.getAsyncManager(request);
+    }
+
+    private static Completion once(Completion completion){
+        AtomicBoolean completed = new AtomicBoolean();
+        return (value, error) -> {
+            if(completed.compareAndSet(false, true)){
+                try {
+                    completion.complete(value, error);
+                }catch (Throwable e){
+                    log.error("op record async completion failed", e);
+                }
+            }
+        };
+    }
+
+    private static Throwable unwrap(Throwable error){
+        if(error instanceof CompletionException && error.getCause() != null){
+            return error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * 异步处理的结果可能是异常对象
+     */
+    private static void completeWithResult(Completion completion, Object concurrentResult){
+        if(concurrentResult instanceof Throwable){
+            completion.complete(null, (Throwable) concurrentResult);
+        }else {
+            completion.complete(concurrentResult, null);
+        }
+    }
+
+
+    private static final class DeferredResultInterceptor implements DeferredResultProcessingInterceptor {
+
+        private final Completion completion;
+
+        DeferredResultInterceptor(Completion completion) {
+            this.completion = completion;
+        }
+
+        @Override
+        public <T> void postProcess(NativeWebRequest request, DeferredResult<T> deferredResult, Object concurrentResult) {
+            completeWithResult(completion, concurrentResult);
+        }
+
+        @Override
+        public <T> boolean handleError(NativeWebRequest request, DeferredResult<T> deferredResult, Throwable t) {
+            completion.complete(null, t);
+            return true;
+        }
+
+        @Override
+        public <T> void afterCompletion(NativeWebRequest request, DeferredResult<T> deferredResult) {
+            // 超时且没有设置超时结果时不会调用postProcess
+            completion.complete(null, new TimeoutException("async request completed without result"));
+        }
+    }
+
+
+    private static final class CallableInterceptor implements CallableProcessingInterceptor {
+
+        private final Completion completion;
+
+        CallableInterceptor(Completion completion) {
+            this.completion = completion;
+        }
+
+        @Override
+        public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object concurrentResult) {
+            completeWithResult(completion, concurrentResult);
+        }
+
+        @Override
+        public <T> Object handleError(NativeWebRequest request, Callable<T> task, Throwable t) {
+            completion.complete(null, t);
+            return RESULT_NONE;
+        }
+
+        @Override
+        public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+            completion.complete(null, new TimeoutException("async request completed without result"));
+        }
+    }
+
+}
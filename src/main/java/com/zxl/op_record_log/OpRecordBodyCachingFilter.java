@@ -0,0 +1,95 @@
+package com.zxl.op_record_log;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingRequestWrapper;
+import org.springframework.web.util.WebUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * 缓存json请求体的过滤器, 与OpRecordProcessConfig.rawBodyFlg一起使用.
+ *   请求体在被读取(@RequestBody反序列化)的同时缓存, 最多缓存maxBytes个字节, 超出时不使用原始请求体
+ */
+public class OpRecordBodyCachingFilter extends OncePerRequestFilter {
+
+    private final int maxBytes;
+
+
+    /**
+     * @param maxBytes 最多缓存的请求体字节数
+     */
+    public OpRecordBodyCachingFilter(int maxBytes) throws Exception {
+        if(maxBytes <= 0){
+            throw new Exception("maxBytes must be greater than 0 !");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        String contentType = request.getContentType();
+        if(contentType == null || !contentType.toLowerCase(Locale.ROOT).contains("json")){
+            filterChain.doFilter(request, response);
+            return;
+        }
+        filterChain.doFilter(new CachedBodyRequest(request, maxBytes), response);
+    }
+
+
+    /**
+     * 获取已经完整缓存的原始请求体, 没有使用该过滤器、请求体超出maxBytes或没有被完整读取时返回null
+     */
+    public static OpRecordRawBody getRawBody(ServletRequest request){
+        CachedBodyRequest cached = WebUtils.getNativeRequest(request, CachedBodyRequest.class);
+        if(cached == null || cached.overflow){
+            return null;
+        }
+        byte[] content = cached.getContentAsByteArray();
+        if(content.length == 0 || (cached.getContentLength() >= 0 && content.length < cached.getContentLength())){
+            return null;
+        }
+        return new OpRecordRawBody(content, charset(cached.getCharacterEncoding()));
+    }
+
+    /**
+     * json默认使用UTF-8编码
+     */
+    private static Charset charset(String encoding){
+        if(encoding == null){
+            return StandardCharsets.UTF_8;
+        }
+        try {
+            return Charset.forName(encoding);
+        }catch (IllegalArgumentException e){
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+
+    private static final class CachedBodyRequest extends ContentCachingRequestWrapper {
+
+        /**
+         * 请求体是否超出了缓存的上限
+         */
+        private volatile boolean overflow;
+
+        CachedBodyRequest(HttpServletRequest request, int maxBytes) {
+            super(request, maxBytes);
+        }
+
+        @Override
+        protected void handleContentOverflow(int contentCacheLimit) {
+            overflow = true;
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.zxl.op_record_log;
+
+/**
+ * OpRecordModelDto的编解码器, 用于溢出日志、写入外部存储等需要传输字节的场景.
+ *   编解码器可以是有状态的(例如字符串字典), 这时编码和解码都必须按相同的顺序进行,
+ *   并在相同的位置调用reset(). 有状态的编解码器不是线程安全的
+ */
+public interface OpRecordCodec {
+
+    byte[] encode(OpRecordModelDto dto);
+
+    OpRecordModelDto decode(byte[] bytes);
+
+    /**
+     * 重置编解码的上下文, 例如清空字典
+     */
+    default void reset(){
+    }
+
+    Type getType();
+
+
+    /**
+     * 编解码器的类型
+     */
+    enum Type {
+
+        /**
+         * fastjson序列化的json
+         */
+        JSON(1),
+
+        /**
+         * 紧凑的二进制格式, 重复的元数据字符串使用字典id
+         */
+        BINARY(2);
+
+        private final int id;
+
+        Type(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * 创建一个新的编解码器实例
+         */
+        public OpRecordCodec create(){
+            return this == BINARY ? new BinaryOpRecordCodec() : new JsonOpRecordCodec();
+        }
+
+        public static Type of(int id){
+            for(Type type : values()){
+                if(type.id == id){
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("unknown OpRecordCodec id : " + id);
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.zxl.op_record_log;
+
+/**
+ * 降级级别. 负载过高时逐级降级, 负载恢复后逐级恢复
+ */
+public enum OpRecordDegradeLevel {
+
+    /**
+     * 记录完整的报文
+     */
+    FULL,
+
+    /**
+     * 报文按degradeMaxElements、degradeMaxBytes截断
+     */
+    TRUNCATED,
+
+    /**
+     * 只记录reqUrl、elapsedTime等元数据, 不序列化报文
+     */
+    METADATA_ONLY
+
+}
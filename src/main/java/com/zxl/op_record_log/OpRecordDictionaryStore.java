@@ -0,0 +1,103 @@
+package com.zxl.op_record_log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+
+/**
+ * 压缩报文使用的预置字典的存储.
+ *   字典的id为字典的Adler32, 与zlib格式的压缩数据头部中的DICTID相同, 因此压缩后的报文中已经包含了字典的id.
+ *   每个字典保存为目录中的一个文件(dict-id.bin), 方法的签名变化之后旧的字典仍然保留, 之前的记录可以按id找到压缩时使用的字典.
+ *
+ *   线程安全
+ */
+public class OpRecordDictionaryStore {
+
+    private static final String FILE_PREFIX = "dict-";
+
+    private static final String FILE_SUFFIX = ".bin";
+
+    private final File dir;
+
+    /**
+     * 已经保存或读取过的字典
+     */
+    private final Map<Integer, byte[]> cache = new ConcurrentHashMap<>();
+
+
+    public OpRecordDictionaryStore(File dir) throws IOException {
+        if(!dir.exists() && !dir.mkdirs()){
+            throw new IOException("create dictionary dir failed : " + dir.getAbsolutePath());
+        }
+        this.dir = dir;
+    }
+
+
+    /**
+     * 字典的id
+     */
+    public static int idOf(byte[] dictionary){
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        return (int) adler.getValue();
+    }
+
+
+    /**
+     * 保存字典, 已经存在时不重复写入
+     * @return 字典的id
+     */
+    public int save(byte[] dictionary) throws IOException {
+        int id = idOf(dictionary);
+        if(cache.containsKey(id)){
+            return id;
+        }
+        File file = fileOf(id);
+        if(!file.exists()){
+            // 先写入临时文件再重命名, 多个进程同时保存时不会读取到写了一半的字典
+            File tmp = File.createTempFile(FILE_PREFIX, ".tmp", dir);
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(dictionary);
+            }
+            if(!tmp.renameTo(file) && !file.exists()){
+                tmp.delete();
+                throw new IOException("save dictionary failed : " + file.getAbsolutePath());
+            }
+            tmp.delete();
+        }
+        cache.put(id, dictionary);
+        return id;
+    }
+
+
+    /**
+     * 按id读取字典
+     * @return 字典, 不存在时返回null
+     */
+    public byte[] load(int id) throws IOException {
+        byte[] dictionary = cache.get(id);
+        if(dictionary != null){
+            return dictionary;
+        }
+        File file = fileOf(id);
+        if(!file.exists()){
+            return null;
+        }
+        dictionary = Files.readAllBytes(file.toPath());
+        if(idOf(dictionary) != id){
+            throw new IOException("dictionary file is corrupted : " + file.getAbsolutePath());
+        }
+        cache.put(id, dictionary);
+        return dictionary;
+    }
+
+
+    private File fileOf(int id){
+        return new File(dir, String.format("%s%08x%s", FILE_PREFIX, id, FILE_SUFFIX));
+    }
+
+}
@@ -0,0 +1,311 @@
+package com.zxl.op_record_log;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步持久化分发器
+ *   记录先放入有界队列，由后台线程取出并分组后调用OpRecordPersistenceService.persistenceBatch进行持久化.
+ *   一个批次在达到batchSize或等待lingerMillis后提交，两者先到者为准
+ */
+@Slf4j
+public class OpRecordDispatcher {
+
+    /**
+     * 后台线程从队列取数据的等待时间(毫秒)
+     */
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final OpRecordPersistenceService persistenceService;
+
+    private final BlockingQueue<Entry> queue;
+
+    private final int queueCapacity;
+
+    private final OpRecordOverflowPolicy overflowPolicy;
+
+    private final Thread[] workers;
+
+    private final int batchSize;
+
+    /**
+     * 本地溢出日志, 未开启时为null
+     */
+    private final OpRecordSpillLog spillLog;
+
+    private final long lingerNanos;
+
+    /**
+     * 是否记录在队列中等待的耗时
+     */
+    private final boolean phaseTiming;
+
+    /**
+     * 因队列已满而丢弃的记录数
+     */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * 持久化失败的记录数
+     */
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    private volatile OpRecordMetrics metrics = OpRecordMetrics.NOOP;
+
+
+    public OpRecordDispatcher(OpRecordPersistenceService persistenceService, int queueCapacity, int workerThreads, OpRecordOverflowPolicy overflowPolicy, int batchSize, long lingerMillis, OpRecordSpillLog spillLog, boolean phaseTiming) throws Exception {
+        this("op-record-dispatcher", persistenceService, queueCapacity, workerThreads, overflowPolicy, batchSize, lingerMillis, spillLog, phaseTiming);
+    }
+
+    /**
+     * @param name 后台线程名称的前缀
+     */
+    public OpRecordDispatcher(String name, OpRecordPersistenceService persistenceService, int queueCapacity, int workerThreads, OpRecordOverflowPolicy overflowPolicy, int batchSize, long lingerMillis, OpRecordSpillLog spillLog, boolean phaseTiming) throws Exception {
+
+        if(persistenceService == null){
+            throw new Exception("OpRecordPersistenceService is null !");
+        }
+
+        if(queueCapacity <= 0 || workerThreads <= 0 || batchSize <= 0){
+            throw new Exception("queueCapacity, workerThreads and batchSize must be greater than 0 !");
+        }
+
+        if(lingerMillis < 0){
+            throw new Exception("lingerMillis must not be negative !");
+        }
+
+        // SPILL不能在没有溢出日志时退化为BLOCK, 否则会阻塞配置了不阻塞的调用线程
+        if(overflowPolicy == OpRecordOverflowPolicy.SPILL && spillLog == null){
+            throw new Exception("overflowPolicy SPILL requires spill log, set spillFlg to true !");
+        }
+
+        this.persistenceService = persistenceService;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy == null ? OpRecordOverflowPolicy.BLOCK : overflowPolicy;
+        this.batchSize = batchSize;
+        this.spillLog = spillLog;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.phaseTiming = phaseTiming;
+        this.workers = new Thread[workerThreads];
+        for(int i=0;i<workerThreads;i++){
+            Thread worker = new Thread(this::work, name + "-" + i);
+            worker.setDaemon(true);
+            workers[i] = worker;
+            worker.start();
+        }
+    }
+
+
+    /**
+     * 放入一条记录，队列已满时按overflowPolicy处理
+     */
+    public void dispatch(OpRecordModelDto dto) throws InterruptedException {
+
+        // 已关闭，直接由调用线程持久化，避免丢失
+        if(!running){
+            persist(Collections.singletonList(dto));
+            return;
+        }
+
+        Entry entry = new Entry(dto);
+        if(queue.offer(entry)){
+            return;
+        }
+
+        switch (overflowPolicy){
+            case SPILL:
+                spill(Collections.singletonList(dto));
+                break;
+            case BLOCK:
+                queue.put(entry);
+                break;
+            case DROP_NEWEST:
+                droppedCount.incrementAndGet();
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(entry)){
+                    if(queue.poll()!=null){
+                        droppedCount.incrementAndGet();
+                    }
+                }
+                break;
+            case CALLER_RUNS:
+                persist(Collections.singletonList(dto));
+                break;
+            default:
+                // do nothing
+        }
+    }
+
+
+    private void work(){
+        while (running || !queue.isEmpty()){
+            List<OpRecordModelDto> batch;
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if(!batch.isEmpty()){
+                persist(batch);
+            }
+        }
+    }
+
+    /**
+     * 取出一个批次: 等待第一条记录，之后在lingerNanos内继续收集，直到达到batchSize
+     */
+    private List<OpRecordModelDto> nextBatch() throws InterruptedException {
+        Entry first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if(first==null){
+            return Collections.emptyList();
+        }
+
+        List<Entry> batch = new ArrayList<>(Math.min(batchSize, 16));
+        batch.add(first);
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < batchSize){
+            queue.drainTo(batch, batchSize - batch.size());
+            if(batch.size() >= batchSize){
+                break;
+            }
+            long remaining = deadline - System.nanoTime();
+            // 关闭时不再等待，尽快持久化剩余的记录
+            if(remaining <= 0 || !running){
+                break;
+            }
+            Entry entry = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if(entry==null){
+                break;
+            }
+            batch.add(entry);
+        }
+        return toRecords(batch);
+    }
+
+    /**
+     * 取出队列中的记录, 并记录在队列中等待的耗时
+     */
+    private List<OpRecordModelDto> toRecords(List<Entry> entries){
+        long now = System.nanoTime();
+        List<OpRecordModelDto> records = new ArrayList<>(entries.size());
+        for(Entry entry : entries){
+            if(phaseTiming){
+                entry.dto.setQueueNanos(now - entry.enqueueNanos);
+            }
+            records.add(entry.dto);
+        }
+        return records;
+    }
+
+    private void persist(List<OpRecordModelDto> batch){
+        long start = System.nanoTime();
+        try {
+            persistenceService.persistenceBatch(batch);
+            metrics.recordPersistence(batch.size(), System.nanoTime() - start);
+        }catch (Exception e){
+            metrics.recordError(OpRecordMetrics.ERROR_PERSISTENCE);
+            if(spillLog!=null){
+                log.warn("op record persistence failed, {} records are spilled : {}", batch.size(), e.toString());
+                spill(batch);
+            }else {
+                failedCount.addAndGet(batch.size());
+                log.error("op record persistence failed, {} records are lost!", batch.size(), e);
+            }
+        }
+    }
+
+    private void spill(List<OpRecordModelDto> batch){
+        try {
+            spillLog.append(batch);
+        }catch (Exception e){
+            failedCount.addAndGet(batch.size());
+            log.error("op record spill failed, {} records are lost!", batch.size(), e);
+        }
+    }
+
+
+    /**
+     * 关闭分发器，并在timeoutMillis内将队列中剩余的记录持久化
+     */
+    public void shutdown(long timeoutMillis) {
+        running = false;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for(Thread worker : workers){
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0){
+                break;
+            }
+            try {
+                worker.join(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        if(!queue.isEmpty()){
+            // 超时未持久化的记录写入溢出日志, 下次启动后重新持久化
+            if(spillLog!=null){
+                List<Entry> rest = new ArrayList<>(queue.size());
+                queue.drainTo(rest);
+                spill(toRecords(rest));
+            }else {
+                log.warn("OpRecordDispatcher shutdown timeout, {} records are not persisted!", queue.size());
+            }
+        }
+    }
+
+
+    public void setMetrics(OpRecordMetrics metrics) {
+        this.metrics = metrics == null ? OpRecordMetrics.NOOP : metrics;
+    }
+
+
+    /**
+     * 当前队列中等待持久化的记录数
+     */
+    public int getQueueDepth(){
+        return queue.size();
+    }
+
+    public int getQueueCapacity(){
+        return queueCapacity;
+    }
+
+    public long getDroppedCount(){
+        return droppedCount.get();
+    }
+
+    public long getFailedCount(){
+        return failedCount.get();
+    }
+
+
+    /**
+     * 队列中的一条记录及其放入队列的时间
+     */
+    private static final class Entry {
+
+        private final OpRecordModelDto dto;
+
+        private final long enqueueNanos;
+
+        Entry(OpRecordModelDto dto) {
+            this.dto = dto;
+            this.enqueueNanos = System.nanoTime();
+        }
+    }
+
+}
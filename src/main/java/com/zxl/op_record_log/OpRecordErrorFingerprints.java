@@ -0,0 +1,177 @@
+package com.zxl.op_record_log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异常指纹的缓存.
+ *   按异常类型和栈顶的若干帧计算指纹, 相同指纹的异常只有第一次记录完整的堆栈, 之后只记录指纹和出现次数,
+ *   避免异常风暴时大量序列化相同的堆栈. 缓存的指纹个数达到capacity时清空, 之后每个指纹会再记录一次完整的堆栈
+ */
+public class OpRecordErrorFingerprints {
+
+    /**
+     * 异常信息的最大字符数
+     */
+    private static final int MAX_MESSAGE_CHARS = 512;
+
+    private final int capacity;
+
+    private final int frames;
+
+    private final int maxStackChars;
+
+    private final Map<String, Fingerprint> cache = new ConcurrentHashMap<>();
+
+
+    /**
+     * 一个异常的摘要
+     */
+    public static final class Summary {
+
+        private final String type;
+
+        private final String message;
+
+        private final String fingerprint;
+
+        private final String stack;
+
+        private final long occurrence;
+
+        Summary(String type, String message, String fingerprint, String stack, long occurrence) {
+            this.type = type;
+            this.message = message;
+            this.fingerprint = fingerprint;
+            this.stack = stack;
+            this.occurrence = occurrence;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * 完整的堆栈, 指纹不是第一次出现时为null
+         */
+        public String getStack() {
+            return stack;
+        }
+
+        /**
+         * 指纹在缓存中出现的次数(包括本次)
+         */
+        public long getOccurrence() {
+            return occurrence;
+        }
+    }
+
+
+    /**
+     * @param capacity 最多缓存的指纹个数
+     * @param frames 计算指纹使用的栈顶帧数
+     * @param maxStackChars 记录的堆栈的最大字符数
+     */
+    public OpRecordErrorFingerprints(int capacity, int frames, int maxStackChars) throws Exception {
+        if(capacity <= 0 || frames <= 0 || maxStackChars <= 0){
+            throw new Exception("capacity, frames and maxStackChars must be greater than 0 !");
+        }
+        this.capacity = capacity;
+        this.frames = frames;
+        this.maxStackChars = maxStackChars;
+    }
+
+
+    public Summary summarize(Throwable error){
+        String type = error.getClass().getName();
+        String key = key(type, error.getStackTrace());
+
+        Fingerprint fingerprint = cache.get(key);
+        boolean first = false;
+        if(fingerprint == null){
+            if(cache.size() >= capacity){
+                cache.clear();
+            }
+            Fingerprint created = new Fingerprint(hash(key));
+            fingerprint = cache.putIfAbsent(key, created);
+            if(fingerprint == null){
+                fingerprint = created;
+                first = true;
+            }
+        }
+        long occurrence = fingerprint.count.incrementAndGet();
+        String message = error.getMessage();
+        if(message != null && message.length() > MAX_MESSAGE_CHARS){
+            message = message.substring(0, MAX_MESSAGE_CHARS);
+        }
+        return new Summary(type, message, fingerprint.hash, first ? stackOf(error) : null, occurrence);
+    }
+
+    /**
+     * 当前缓存的指纹个数
+     */
+    public int size(){
+        return cache.size();
+    }
+
+
+    /**
+     * 异常类型 + 栈顶的frames帧
+     */
+    private String key(String type, StackTraceElement[] stackTrace){
+        StringBuilder builder = new StringBuilder(type.length() + frames * 64).append(type);
+        for(int i=0;i<stackTrace.length && i<frames;i++){
+            StackTraceElement frame = stackTrace[i];
+            builder.append('|').append(frame.getClassName()).append('.').append(frame.getMethodName()).append(':').append(frame.getLineNumber());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 64位的FNV-1a哈希, 16位的十六进制字符串
+     */
+    private static String hash(String key){
+        long hash = 0xcbf29ce484222325L;
+        for(int i=0;i<key.length();i++){
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        String hex = Long.toHexString(hash);
+        StringBuilder builder = new StringBuilder(16);
+        for(int i=hex.length();i<16;i++){
+            builder.append('0');
+        }
+        return builder.append(hex).toString();
+    }
+
+    private String stackOf(Throwable error){
+        StringWriter writer = new StringWriter();
+        error.printStackTrace(new PrintWriter(writer));
+        String stack = writer.toString();
+        return stack.length() <= maxStackChars ? stack : stack.substring(0, maxStackChars);
+    }
+
+
+    private static final class Fingerprint {
+
+        private final String hash;
+
+        private final AtomicLong count = new AtomicLong();
+
+        Fingerprint(String hash) {
+            this.hash = hash;
+        }
+    }
+
+}
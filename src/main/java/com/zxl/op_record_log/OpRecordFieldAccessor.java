@@ -0,0 +1,197 @@
+package com.zxl.op_record_log;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 类的字段访问器.
+ *   每个类只构建一次(包含父类的字段, 不包含静态字段)，之后通过MethodHandle读取字段值，
+ *   基本类型的字段可以不经过装箱直接读取
+ */
+public final class OpRecordFieldAccessor {
+
+    private static final Map<Class<?>, OpRecordFieldAccessor> CACHE_ACCESSOR = new ConcurrentHashMap<>();
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /**
+     * 字段名 -> 字段读取器, 按父类到子类、声明的顺序排列
+     */
+    private final Map<String, FieldGetter> getters;
+
+    private final List<String> fieldNames;
+
+
+    private OpRecordFieldAccessor(Class<?> clazz) {
+        // 从父类到子类依次收集, 子类的同名字段覆盖父类的字段
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for(Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()){
+            hierarchy.add(0, c);
+        }
+
+        Map<String, FieldGetter> map = new LinkedHashMap<>();
+        for(Class<?> c : hierarchy){
+            for(Field field : c.getDeclaredFields()){
+                if(Modifier.isStatic(field.getModifiers()) || field.isSynthetic()){
+                    continue;
+                }
+                FieldGetter getter = FieldGetter.of(field);
+                if(getter != null){
+                    map.remove(field.getName());
+                    map.put(field.getName(), getter);
+                }
+            }
+        }
+
+        this.getters = Collections.unmodifiableMap(map);
+        this.fieldNames = Collections.unmodifiableList(new ArrayList<>(map.keySet()));
+    }
+
+
+    public static OpRecordFieldAccessor of(Class<?> clazz){
+        OpRecordFieldAccessor accessor = CACHE_ACCESSOR.get(clazz);
+        if(accessor == null){
+            accessor = CACHE_ACCESSOR.computeIfAbsent(clazz, OpRecordFieldAccessor::new);
+        }
+        return accessor;
+    }
+
+
+    /**
+     * 所有可读取的字段名
+     */
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    /**
+     * 获取字段读取器, 字段不存在时返回null
+     */
+    public FieldGetter getGetter(String fieldName){
+        return getters.get(fieldName);
+    }
+
+
+    /**
+     * 单个字段的读取器
+     */
+    public static final class FieldGetter {
+
+        private final String name;
+
+        private final Class<?> type;
+
+        /**
+         * (Object)Object 类型的handle, 基本类型会被装箱
+         */
+        private final MethodHandle objectHandle;
+
+        /**
+         * (Object)type 类型的handle, 用于不装箱的读取基本类型
+         */
+        private final MethodHandle typedHandle;
+
+
+        private FieldGetter(String name, Class<?> type, MethodHandle objectHandle, MethodHandle typedHandle) {
+            this.name = name;
+            this.type = type;
+            this.objectHandle = objectHandle;
+            this.typedHandle = typedHandle;
+        }
+
+        /**
+         * 构建字段读取器, 字段无法访问时(例如jdk模块中的类)返回null
+         */
+        static FieldGetter of(Field field){
+            MethodHandle handle;
+            try {
+                field.setAccessible(true);
+                handle = LOOKUP.unreflectGetter(field);
+            } catch (IllegalAccessException | RuntimeException e) {
+                return null;
+            }
+            Class<?> type = field.getType();
+            MethodHandle typedHandle = handle.asType(MethodType.methodType(type, Object.class));
+            MethodHandle objectHandle = handle.asType(MethodType.methodType(Object.class, Object.class));
+            return new FieldGetter(field.getName(), type, objectHandle, typedHandle);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        public boolean isPrimitive(){
+            return type.isPrimitive();
+        }
+
+        public Object get(Object target){
+            try {
+                return objectHandle.invokeExact(target);
+            } catch (Throwable e) {
+                throw new IllegalStateException("get field value failed : " + name, e);
+            }
+        }
+
+        /**
+         * 读取int、short、byte类型的字段
+         */
+        public int getInt(Object target){
+            try {
+                if(type == int.class){
+                    return (int) typedHandle.invokeExact(target);
+                }
+                if(type == short.class){
+                    return (short) typedHandle.invokeExact(target);
+                }
+                return (byte) typedHandle.invokeExact(target);
+            } catch (Throwable e) {
+                throw new IllegalStateException("get field value failed : " + name, e);
+            }
+        }
+
+        public long getLong(Object target){
+            try {
+                return (long) typedHandle.invokeExact(target);
+            } catch (Throwable e) {
+                throw new IllegalStateException("get field value failed : " + name, e);
+            }
+        }
+
+        /**
+         * 读取double、float类型的字段
+         */
+        public double getDouble(Object target){
+            try {
+                if(type == double.class){
+                    return (double) typedHandle.invokeExact(target);
+                }
+                return (float) typedHandle.invokeExact(target);
+            } catch (Throwable e) {
+                throw new IllegalStateException("get field value failed : " + name, e);
+            }
+        }
+
+        public boolean getBoolean(Object target){
+            try {
+                return (boolean) typedHandle.invokeExact(target);
+            } catch (Throwable e) {
+                throw new IllegalStateException("get field value failed : " + name, e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.zxl.op_record_log;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 自动降级的控制器.
+ *   统计每个评估周期内序列化的耗时和被调用的函数执行的耗时, 以及异步持久化队列的使用率,
+ *   超过预算时降一级, 连续recoverIntervals个周期低于恢复阈值时恢复一级, 介于两者之间时保持不变(滞后), 避免在两个级别之间反复切换
+ */
+@Slf4j
+public class OpRecordGovernor {
+
+    private final OpRecordProcessConfig config;
+
+    /**
+     * 异步持久化分发器, 未开启异步持久化时为null
+     */
+    private final OpRecordDispatcher dispatcher;
+
+    private final long intervalNanos;
+
+    private final LongAdder overheadNanos = new LongAdder();
+
+    private final LongAdder businessNanos = new LongAdder();
+
+    /**
+     * 下一次评估的时间
+     */
+    private final AtomicLong nextEvaluateNanos;
+
+    private volatile OpRecordDegradeLevel level = OpRecordDegradeLevel.FULL;
+
+    /**
+     * 连续低于恢复阈值的周期数, 只在评估的线程中修改
+     */
+    private int calmIntervals;
+
+
+    public OpRecordGovernor(OpRecordProcessConfig config, OpRecordDispatcher dispatcher) {
+        this.config = config;
+        this.dispatcher = dispatcher;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(config.getDegradeIntervalMillis(), 1));
+        this.nextEvaluateNanos = new AtomicLong(System.nanoTime() + intervalNanos);
+    }
+
+
+    /**
+     * 当前的降级级别. 未开启自动降级时总是FULL
+     */
+    public OpRecordDegradeLevel level(){
+        if(!config.isDegradeFlg()){
+            return OpRecordDegradeLevel.FULL;
+        }
+        long now = System.nanoTime();
+        long next = nextEvaluateNanos.get();
+        // 只有一个线程进行评估
+        if(now - next >= 0 && nextEvaluateNanos.compareAndSet(next, now + intervalNanos)){
+            evaluate();
+        }
+        return level;
+    }
+
+
+    /**
+     * 记录序列化等记录操作日志的开销
+     */
+    public void recordOverhead(long nanos){
+        if(config.isDegradeFlg()){
+            overheadNanos.add(nanos);
+        }
+    }
+
+    /**
+     * 记录被调用的函数执行的耗时
+     */
+    public void recordBusiness(long nanos){
+        if(config.isDegradeFlg()){
+            businessNanos.add(nanos);
+        }
+    }
+
+
+    private void evaluate(){
+        long overhead = overheadNanos.sumThenReset();
+        long business = businessNanos.sumThenReset();
+        double overheadRatio = overhead + business == 0 ? 0 : (double) overhead / (overhead + business);
+
+        double queueRatio = 0;
+        if(dispatcher != null){
+            queueRatio = (double) dispatcher.getQueueDepth() / dispatcher.getQueueCapacity();
+        }
+
+        OpRecordDegradeLevel current = level;
+        OpRecordDegradeLevel next = current;
+        if(overheadRatio > config.getDegradeOverheadRatio() || queueRatio > config.getDegradeQueueRatio()){
+            calmIntervals = 0;
+            if(current.ordinal() < OpRecordDegradeLevel.values().length - 1){
+                next = OpRecordDegradeLevel.values()[current.ordinal() + 1];
+            }
+        }else if(overheadRatio < config.getRecoverOverheadRatio() && queueRatio < config.getRecoverQueueRatio()){
+            if(current.ordinal() > 0 && ++calmIntervals >= config.getRecoverIntervals()){
+                calmIntervals = 0;
+                next = OpRecordDegradeLevel.values()[current.ordinal() - 1];
+            }
+        }else {
+            calmIntervals = 0;
+        }
+
+        if(next != current){
+            level = next;
+            log.warn("OpRecord degrade level {} -> {}, overhead ratio {}, queue ratio {}", current, next,
+                    String.format("%.3f", overheadRatio), String.format("%.3f", queueRatio));
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.zxl.op_record_log;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁直方图.
+ *   按2的幂划分桶(第i个桶记录[2^(i-1), 2^i)的值), 分位数返回所在桶的上界, 误差在2倍以内
+ */
+public class OpRecordHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+
+    public OpRecordHistogram() {
+        for(int i=0;i<BUCKETS;i++){
+            buckets[i] = new LongAdder();
+        }
+    }
+
+
+    public void record(long value){
+        long v = Math.max(value, 0);
+        buckets[BUCKETS - Long.numberOfLeadingZeros(v)].increment();
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+
+    public long getCount(){
+        return count.sum();
+    }
+
+    public long getSum(){
+        return sum.sum();
+    }
+
+    public long getMax(){
+        return max.get();
+    }
+
+    public double getMean(){
+        long c = getCount();
+        return c == 0 ? 0 : (double) getSum() / c;
+    }
+
+    /**
+     * 近似分位数
+     * @param quantile 取值0到1, 例如0.99
+     */
+    public long getPercentile(double quantile){
+        long total = getCount();
+        if(total == 0){
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for(int i=0;i<BUCKETS;i++){
+            seen += buckets[i].sum();
+            if(seen >= Math.max(rank, 1)){
+                return i == 0 ? 0 : Math.min(i >= 63 ? Long.MAX_VALUE : (1L << i) - 1, getMax());
+            }
+        }
+        return getMax();
+    }
+
+
+    @Override
+    public String toString() {
+        return "{count=" + getCount() + ", mean=" + (long) getMean() + ", p50=" + getPercentile(0.5)
+                + ", p99=" + getPercentile(0.99) + ", max=" + getMax() + "}";
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.zxl.op_record_log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按时间递增的64位id生成器(snowflake).
+ *   格式: [1位符号位 0][41位毫秒时间戳(从EPOCH开始)][10位节点id][12位序列号]
+ *
+ *   不加锁: 时间戳和序列号作为一个逻辑时钟保存在一个AtomicLong中, 每次取 max(当前毫秒 << 12, 上一次 + 1) 并CAS更新.
+ *   同一毫秒内超过4096个id时序列号进位到下一毫秒(逻辑时钟暂时超前于系统时钟);
+ *   系统时钟回拨时继续使用上一次 + 1, 同一个进程内不会生成重复的id, 也不需要等待时钟追上.
+ *
+ *   注意: 逻辑时钟只保存在内存中, 每次启动从0开始. 重启前后系统时钟回拨, 或者重启前短时间内大量生成id使逻辑时钟超前,
+ *   而重启在系统时钟追上之前完成时, 重启后可能生成与重启前相同的id. 只保证一个进程的生命周期内不重复
+ */
+public class OpRecordIdGenerator {
+
+    /**
+     * 时间戳的起点 2020-01-01T00:00:00Z
+     */
+    public static final long EPOCH = 1577836800000L;
+
+    private static final int NODE_BITS = 10;
+
+    private static final int SEQUENCE_BITS = 12;
+
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long nodeBits;
+
+    /**
+     * 逻辑时钟: [毫秒时间戳][12位序列号]
+     */
+    private final AtomicLong clock = new AtomicLong();
+
+
+    /**
+     * @param nodeId 节点id, 取值0到1023, 同一张表的多个节点必须不同
+     */
+    public OpRecordIdGenerator(int nodeId) throws Exception {
+        if(nodeId < 0 || nodeId > MAX_NODE_ID){
+            throw new Exception("nodeId must be between 0 and " + MAX_NODE_ID + " !");
+        }
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+    }
+
+
+    public long nextId(){
+        long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+        long last;
+        long next;
+        do {
+            last = clock.get();
+            next = Math.max(now, last + 1);
+        }while (!clock.compareAndSet(last, next));
+
+        return ((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | (next & SEQUENCE_MASK);
+    }
+
+
+    /**
+     * id中的时间戳(毫秒)
+     */
+    public static long timestampOf(long id){
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    /**
+     * id中的节点id
+     */
+    public static int nodeIdOf(long id){
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE_ID);
+    }
+
+}
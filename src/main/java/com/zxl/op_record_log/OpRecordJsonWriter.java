@@ -0,0 +1,706 @@
+package com.zxl.op_record_log;
+
+import com.alibaba.fastjson.serializer.JSONSerializer;
+import com.alibaba.fastjson.serializer.JavaBeanSerializer;
+import com.alibaba.fastjson.serializer.ObjectSerializer;
+import com.alibaba.fastjson.serializer.SerializeWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.time.temporal.TemporalAccessor;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 脱敏json写入器.
+ *   遍历一次对象图，遍历的同时按DesensitizationField进行脱敏，直接写入SerializeWriter，不生成中间的JSONObject/JSONArray.
+ *   遍历时按OpRecordLimit限制深度、集合元素个数和输出的字符数, 超出时写入截断标识并停止遍历.
+ *   字符串、byte[]等不需要遍历的值在写入之前按剩余的字符数截断或替换, 一个很大的值也不会超出maxBytes.
+ *   SerializeWriter的缓冲区是线程复用的，使用完后需要调用close()归还.
+ *   非线程安全，每次序列化创建一个新的实例
+ */
+public class OpRecordJsonWriter implements Closeable {
+
+    /**
+     * 截断标识
+     */
+    public static final String TRUNCATED_MARKER = "...(truncated)";
+
+    /**
+     * 对象被截断时，截断标识使用的字段名
+     */
+    public static final String TRUNCATED_KEY = "$truncated";
+
+    private final SerializeWriter out;
+
+    private final JSONSerializer serializer;
+
+    /**
+     * 敏感信息的符号
+     */
+    private final String symbol;
+
+    private final OpRecordLimit limit;
+
+    /**
+     * 是否有限制. 没有限制时不需要脱敏的值直接交给fastjson序列化
+     */
+    private final boolean limited;
+
+    /**
+     * 大数组的并行脱敏, 为null时不使用. 只在没有限制时使用, 有限制时需要按顺序统计元素个数和字符数
+     */
+    private final OpRecordParallelMasker parallelMasker;
+
+    /**
+     * 当前数组是否已经写入过元素, 用于判断是否需要写入逗号
+     */
+    private boolean arrayHasElement;
+
+    /**
+     * 当前遍历深度
+     */
+    private int depth;
+
+    /**
+     * 已经遍历的集合元素个数
+     */
+    private int elements;
+
+    /**
+     * 是否已经超出集合元素个数或字符数的限制
+     */
+    private boolean truncated;
+
+    /**
+     * 是否已经写入过截断标识
+     */
+    private boolean markerWritten;
+
+
+    public OpRecordJsonWriter(String symbol) {
+        this(symbol, OpRecordLimit.UNLIMITED);
+    }
+
+    public OpRecordJsonWriter(String symbol, OpRecordLimit limit) {
+        this(symbol, limit, null);
+    }
+
+    public OpRecordJsonWriter(String symbol, OpRecordLimit limit, OpRecordParallelMasker parallelMasker) {
+        this.out = new SerializeWriter();
+        this.serializer = new JSONSerializer(out);
+        this.symbol = symbol;
+        this.limit = limit == null ? OpRecordLimit.UNLIMITED : limit;
+        this.limited = !this.limit.isUnlimited();
+        this.parallelMasker = limited ? null : parallelMasker;
+    }
+
+
+    public void startArray(){
+        out.write('[');
+        arrayHasElement = false;
+    }
+
+    public void endArray(){
+        out.write(']');
+    }
+
+
+    /**
+     * 在最外层数组中写入一个 {"fieldName":value} 元素
+     * @param level 脱敏等级
+     * @param dField fieldName对应的脱敏字段, 没有则为null
+     * @param fieldName 字段名
+     * @param arg 字段值
+     */
+    public void processDtField(DesensitizationLevel level, DesensitizationField dField, String fieldName, Object arg){
+        if(!startElement()){
+            return;
+        }
+
+        out.write('{');
+        // 与JSONObject.toJSONString()保持一致: 值为null的字段不输出
+        if(arg!=null){
+            out.writeFieldName(fieldName);
+            if(arg instanceof OpRecordRawBody && level != DesensitizationLevel.ALL){
+                writeRawBody(level == DesensitizationLevel.PART ? dField : null, (OpRecordRawBody) arg);
+                out.write('}');
+                return;
+            }
+            switch (level){
+                case ALL:
+                    out.writeString(symbol);
+                    break;
+                case PART:
+                    if(dField!=null){
+                        processDtFieldByType(dField,arg);
+                    }else {
+                        writeRaw(arg);
+                    }
+                    break;
+                case NO:
+                default:
+                    writeRaw(arg);
+            }
+        }
+        out.write('}');
+    }
+
+
+    /**
+     * 在最外层数组中写入target的一个字段 {"fieldName":value}.
+     *   不需要脱敏的基本类型字段直接写入，不进行装箱
+     * @param level 脱敏等级
+     * @param dField 字段对应的脱敏字段, 没有则为null
+     * @param getter 字段读取器
+     * @param target 字段所属的对象
+     */
+    public void processDtField(DesensitizationLevel level, DesensitizationField dField, OpRecordFieldAccessor.FieldGetter getter, Object target){
+        boolean raw = level == DesensitizationLevel.NO || (level == DesensitizationLevel.PART && dField == null);
+        if(!raw || !getter.isPrimitive()){
+            processDtField(level, dField, getter.getName(), getter.get(target));
+            return;
+        }
+
+        if(!startElement()){
+            return;
+        }
+
+        out.write('{');
+        out.writeFieldName(getter.getName());
+        Class<?> type = getter.getType();
+        if(type == int.class || type == short.class || type == byte.class){
+            out.writeInt(getter.getInt(target));
+        }else if(type == long.class){
+            out.writeLong(getter.getLong(target));
+        }else if(type == boolean.class){
+            out.write(getter.getBoolean(target));
+        }else if(type == double.class){
+            out.writeDouble(getter.getDouble(target), false);
+        }else if(type == float.class){
+            out.writeFloat((float) getter.getDouble(target), false);
+        }else {
+            writeRaw(getter.get(target));
+        }
+        out.write('}');
+    }
+
+
+    /**
+     * 从缓存的字节中读取原始请求体, 流式脱敏后写入, 不限制深度和集合元素个数.
+     *   脱敏的输出最多缓存剩余的字符数, 超出maxBytes时停止脱敏并写入截断标识;
+     *   不是合法的json时整个值替换为symbol, 避免写入未脱敏的内容
+     * @param dField 请求体对应的脱敏字段, 为null时不脱敏
+     */
+    private void writeRawBody(DesensitizationField dField, OpRecordRawBody body){
+        int maxChars = limit.getMaxBytes() > 0 ? Math.max(limit.getMaxBytes() - out.size(), 0) : Integer.MAX_VALUE;
+        BoundedWriter buffer = new BoundedWriter(maxChars);
+        try {
+            OpRecordStreamingMasker.mask(body.openReader(), buffer, dField, symbol);
+        }catch (IOException e){
+            if(buffer.exceeded){
+                out.writeString(TRUNCATED_MARKER);
+                markTruncated();
+            }else {
+                out.writeString(symbol);
+            }
+            return;
+        }
+        out.write(buffer.toString());
+    }
+
+
+    /**
+     * 开始写入最外层数组的一个元素, 已经超出限制时写入截断标识并返回false
+     */
+    private boolean startElement(){
+        if(exhausted()){
+            if(takeMarker()){
+                if(arrayHasElement){
+                    out.write(',');
+                }
+                out.writeString(TRUNCATED_MARKER);
+                arrayHasElement = true;
+            }
+            return false;
+        }
+
+        if(arrayHasElement){
+            out.write(',');
+        }
+        arrayHasElement = true;
+        return true;
+    }
+
+
+    private void processDtFieldByType(DesensitizationField dField, Object arg) {
+        switch (dField.getType()){
+            case SIMPLE:
+                if(dField.getFieldMap()==null){
+                    out.writeString(symbol);
+                }else {
+                    processDtFieldByNextLayer(dField,arg);
+                }
+                break;
+            case ARRAY:
+                if(isArray(arg)){
+                    processDesensitizationArrayField(dField,arg,true);
+                }else {
+                    // 不是数组或List, 无法按下标匹配, 整体脱敏
+                    out.writeString(symbol);
+                }
+                break;
+            default:
+                writeRaw(arg);
+        }
+    }
+
+
+    /**
+     * 对arg的下一层字段按dField.getFieldMap()进行脱敏.
+     *   arg为数组或集合时, 对其中每个元素按下一层进行脱敏
+     */
+    private void processDtFieldByNextLayer(DesensitizationField dField, Object arg) {
+        if(arg instanceof Map){
+            writeMap(dField.getFieldMap(),(Map<?,?>) arg);
+            return;
+        }
+
+        if(isArray(arg)){
+            processDesensitizationArrayField(dField,arg,false);
+            return;
+        }
+
+        Map<String,Object> beanFields = getBeanFieldValues(arg);
+        if(beanFields!=null){
+            writeMap(dField.getFieldMap(),beanFields);
+        }else {
+            // 简单类型没有下一层
+            writeRaw(arg);
+        }
+    }
+
+
+    /**
+     * 写入map
+     * @param fieldMap 需要脱敏的下一层字段, 为null时表示都不需要脱敏
+     * @param map map或java bean的字段值
+     */
+    private void writeMap(Map<String,DesensitizationField> fieldMap, Map<?,?> map){
+        if(!enterContainer()){
+            return;
+        }
+        out.write('{');
+        boolean first = true;
+        for(Map.Entry<?,?> entry : map.entrySet()){
+            Object value = entry.getValue();
+            if(value==null){
+                continue;
+            }
+            if(exhausted()){
+                if(takeMarker()){
+                    if(!first){
+                        out.write(',');
+                    }
+                    out.writeFieldName(TRUNCATED_KEY);
+                    out.writeString(TRUNCATED_MARKER);
+                }
+                break;
+            }
+            elements++;
+            if(!first){
+                out.write(',');
+            }
+            first = false;
+
+            String key = String.valueOf(entry.getKey());
+            out.writeFieldName(key);
+            DesensitizationField subField = fieldMap == null ? null : fieldMap.get(key);
+            if(subField==null){
+                writeRaw(value);
+            }else {
+                processDtFieldByType(subField,value);
+            }
+        }
+        out.write('}');
+        depth--;
+    }
+
+
+    /**
+     * 写入数组或集合
+     * @param dField 脱敏字段, 为null时表示元素都不需要脱敏
+     * @param array 数组或集合
+     * @param indexMatch true: 按dField的下标表达式匹配需要脱敏的元素; false: 所有元素都按dField的下一层进行脱敏
+     */
+    private void processDesensitizationArrayField(DesensitizationField dField, Object array, boolean indexMatch) {
+        if(!enterContainer()){
+            return;
+        }
+        // 没有下一层得标识
+        boolean notHadNextLevel=dField==null || dField.getFieldMap()==null;
+        ArrayIndexMatcher matcher = dField==null || !indexMatch ? null : getIndexMatcher(dField);
+        boolean matchAll = dField!=null && (matcher==null || matcher.isMatchAll());
+        int maxIndex = matcher == null ? -1 : matcher.getMaxIndex();
+
+        if(dField!=null && parallelMasker!=null && parallelMasker.isParallel(sizeOf(array))){
+            writeArrayInParallel(dField, toArray(array), matcher, matchAll, maxIndex, notHadNextLevel);
+            depth--;
+            return;
+        }
+
+        out.write('[');
+        Iterator<?> iterator = iterate(array);
+        for(int i=0;iterator.hasNext();i++){
+            if(exhausted()){
+                if(takeMarker()){
+                    if(i>0){
+                        out.write(',');
+                    }
+                    out.writeString(TRUNCATED_MARKER);
+                }
+                break;
+            }
+            elements++;
+            if(i>0){
+                out.write(',');
+            }
+            writeArrayElement(dField, iterator.next(), i, matcher, matchAll, maxIndex, notHadNextLevel);
+        }
+        out.write(']');
+        depth--;
+    }
+
+    private void writeArrayElement(DesensitizationField dField, Object element, int i, ArrayIndexMatcher matcher,
+                                   boolean matchAll, int maxIndex, boolean notHadNextLevel){
+        // 当前元素的小标是否符合表达式的标识
+        if(element==null || dField==null || (!matchAll && (i > maxIndex || !matcher.matches(i)))){
+            writeRaw(element);
+        }else if(notHadNextLevel){
+            out.writeString(symbol);
+        }else {
+            // 有下一层
+            processDtFieldByNextLayer(dField,element);
+        }
+    }
+
+    /**
+     * 切分成多个分块并行脱敏, 每个分块使用独立的writer, 再按顺序拼接
+     */
+    private void writeArrayInParallel(DesensitizationField dField, Object[] array, ArrayIndexMatcher matcher,
+                                      boolean matchAll, int maxIndex, boolean notHadNextLevel){
+        List<String> chunks = parallelMasker.write(array.length, (from, to) -> {
+            try(OpRecordJsonWriter chunkWriter = new OpRecordJsonWriter(symbol)){
+                for(int i=from;i<to;i++){
+                    if(i>from){
+                        chunkWriter.out.write(',');
+                    }
+                    chunkWriter.writeArrayElement(dField, array[i], i, matcher, matchAll, maxIndex, notHadNextLevel);
+                }
+                return chunkWriter.toString();
+            }
+        });
+
+        out.write('[');
+        for(int i=0;i<chunks.size();i++){
+            if(i>0){
+                out.write(',');
+            }
+            out.write(chunks.get(i));
+        }
+        out.write(']');
+        elements += array.length;
+    }
+
+
+    private static ArrayIndexMatcher getIndexMatcher(DesensitizationField dField){
+        ArrayIndexMatcher matcher = dField.getIndexMatcher();
+        // 不是通过getArrayEntity构建的字段, 现场编译
+        return matcher != null ? matcher : ArrayIndexMatcher.compile(dField.getArrayExps());
+    }
+
+
+    /**
+     * 写入不需要脱敏的值.
+     *   没有限制时直接交给fastjson序列化; 有限制时自行遍历容器类型, 以便在遍历过程中进行限制
+     */
+    private void writeRaw(Object value){
+        if(!limited || value==null){
+            serializer.write(value);
+            return;
+        }
+
+        if(value instanceof Map){
+            writeMap(null,(Map<?,?>) value);
+            return;
+        }
+
+        if(isArray(value)){
+            processDesensitizationArrayField(null,value,false);
+            return;
+        }
+
+        Map<String,Object> beanFields = getBeanFieldValues(value);
+        if(beanFields!=null){
+            writeMap(null,beanFields);
+        }else {
+            writeLeaf(value);
+        }
+    }
+
+
+    /**
+     * 写入不需要遍历的值, 超出剩余的字符数时截断或替换为截断标识.
+     *   字符串保留前面的部分并以截断标识结尾; byte[]按base64的长度判断; 其他无法预先知道长度的值先写入有上限的临时缓冲区
+     */
+    private void writeLeaf(Object value){
+        if(limit.getMaxBytes() <= 0 || isSmallLeaf(value)){
+            serializer.write(value);
+            return;
+        }
+        int remaining = limit.getMaxBytes() - out.size();
+
+        if(value instanceof CharSequence || value instanceof char[]){
+            CharSequence chars = value instanceof char[] ? new String((char[]) value) : (CharSequence) value;
+            // 两个引号
+            if(chars.length() + 2 <= remaining){
+                serializer.write(value);
+            }else {
+                int keep = Math.max(0, remaining - 2 - TRUNCATED_MARKER.length());
+                out.writeString(chars.subSequence(0, keep) + TRUNCATED_MARKER);
+                markTruncated();
+            }
+            return;
+        }
+
+        if(value instanceof byte[]){
+            // fastjson将byte[]按base64字符串写入
+            long length = (((byte[]) value).length + 2L) / 3 * 4 + 2;
+            if(length <= remaining){
+                serializer.write(value);
+            }else {
+                out.writeString(TRUNCATED_MARKER);
+                markTruncated();
+            }
+            return;
+        }
+
+        BoundedWriter buffer = new BoundedWriter(Math.max(remaining, 0));
+        try(SerializeWriter leafOut = new SerializeWriter(buffer)){
+            new JSONSerializer(leafOut).write(value);
+        }catch (RuntimeException e){
+            // fastjson会包装写入时的异常
+            if(!buffer.exceeded){
+                throw e;
+            }
+        }
+        if(buffer.exceeded){
+            out.writeString(TRUNCATED_MARKER);
+            markTruncated();
+        }else {
+            out.write(buffer.toString());
+        }
+    }
+
+    /**
+     * 长度很小、不需要按剩余字符数判断的值
+     */
+    private static boolean isSmallLeaf(Object value){
+        return value instanceof Number
+                || value instanceof Boolean
+                || value instanceof Character
+                || value instanceof Enum
+                || value instanceof Date
+                || value instanceof TemporalAccessor;
+    }
+
+    /**
+     * 值被截断或替换时, 截断标识已经写入值中
+     */
+    private void markTruncated(){
+        truncated = true;
+        markerWritten = true;
+    }
+
+
+    /**
+     * 进入下一层容器, 超过最大深度时写入截断标识并返回false
+     */
+    private boolean enterContainer(){
+        if(limit.getMaxDepth() > 0 && depth >= limit.getMaxDepth()){
+            out.writeString(TRUNCATED_MARKER);
+            return false;
+        }
+        depth++;
+        return true;
+    }
+
+
+    /**
+     * 是否已经超出集合元素个数或字符数的限制
+     */
+    private boolean exhausted(){
+        if(truncated){
+            return true;
+        }
+        if((limit.getMaxBytes() > 0 && out.size() >= limit.getMaxBytes())
+                || (limit.getMaxElements() > 0 && elements >= limit.getMaxElements())){
+            truncated = true;
+        }
+        return truncated;
+    }
+
+    /**
+     * 截断标识只写入一次, 由第一个发现超出限制的位置写入
+     */
+    private boolean takeMarker(){
+        if(markerWritten){
+            return false;
+        }
+        markerWritten = true;
+        return true;
+    }
+
+
+    /**
+     * 获取java bean的所有字段值(与fastjson序列化时的字段名、顺序一致), 不是java bean时返回null
+     */
+    private Map<String,Object> getBeanFieldValues(Object bean){
+        ObjectSerializer objectWriter = serializer.getObjectWriter(bean.getClass());
+        if(!(objectWriter instanceof JavaBeanSerializer)){
+            return null;
+        }
+        try {
+            return ((JavaBeanSerializer) objectWriter).getFieldValuesMap(bean);
+        } catch (Exception e) {
+            throw new IllegalStateException("get field values failed : " + bean.getClass().getName(), e);
+        }
+    }
+
+
+    /**
+     * 是否是需要逐个元素遍历的数组或集合. byte[]、char[]由fastjson按字符串写入
+     */
+    private static boolean isArray(Object value){
+        if(value instanceof Collection){
+            return true;
+        }
+        Class<?> clazz = value.getClass();
+        return clazz.isArray() && clazz != byte[].class && clazz != char[].class;
+    }
+
+    private static int sizeOf(Object arrayOrCollection){
+        if(arrayOrCollection instanceof Collection){
+            return ((Collection<?>) arrayOrCollection).size();
+        }
+        return Array.getLength(arrayOrCollection);
+    }
+
+    private static Object[] toArray(Object arrayOrCollection){
+        if(arrayOrCollection instanceof Collection){
+            return ((Collection<?>) arrayOrCollection).toArray();
+        }
+        if(arrayOrCollection instanceof Object[]){
+            return (Object[]) arrayOrCollection;
+        }
+        int length = Array.getLength(arrayOrCollection);
+        Object[] array = new Object[length];
+        for(int i=0;i<length;i++){
+            array[i] = Array.get(arrayOrCollection, i);
+        }
+        return array;
+    }
+
+    private static Iterator<?> iterate(Object arrayOrCollection){
+        if(arrayOrCollection instanceof Collection){
+            return ((Collection<?>) arrayOrCollection).iterator();
+        }
+        int length = Array.getLength(arrayOrCollection);
+        return new Iterator<Object>() {
+            private int idx = 0;
+
+            @Override
+            public boolean hasNext() {
+                return idx < length;
+            }
+
+            @Override
+            public Object next() {
+                return Array.get(arrayOrCollection, idx++);
+            }
+        };
+    }
+
+
+    /**
+     * 有字符数上限的Writer, 超出上限时不再写入并抛出异常, 用于写入无法预先知道长度的值
+     */
+    private static final class BoundedWriter extends Writer {
+
+        private final StringBuilder builder = new StringBuilder();
+
+        private final int maxChars;
+
+        private boolean exceeded;
+
+        BoundedWriter(int maxChars) {
+            this.maxChars = maxChars;
+        }
+
+        @Override
+        public void write(char[] chars, int off, int len) throws IOException {
+            if(exceeded || builder.length() + len > maxChars){
+                exceeded = true;
+                throw new IOException("exceeded " + maxChars + " chars");
+            }
+            builder.append(chars, off, len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return builder.toString();
+        }
+    }
+
+
+    /**
+     * 是否发生了截断
+     */
+    public boolean isTruncated(){
+        return truncated;
+    }
+
+    /**
+     * 已写入的字符数
+     */
+    public int size(){
+        return out.size();
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    /**
+     * 归还SerializeWriter的缓冲区
+     */
+    @Override
+    public void close() {
+        out.close();
+    }
+
+}
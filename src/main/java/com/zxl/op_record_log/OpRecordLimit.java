@@ -0,0 +1,69 @@
+package com.zxl.op_record_log;
+
+import lombok.Getter;
+
+/**
+ * 脱敏、序列化时的遍历和输出限制. 值小于等于0表示不限制
+ */
+@Getter
+public class OpRecordLimit {
+
+    public static final OpRecordLimit UNLIMITED = new OpRecordLimit(0, 0, 0);
+
+    /**
+     * 最大遍历深度
+     */
+    private final int maxDepth;
+
+    /**
+     * 最多遍历的集合元素个数(数组、集合的元素以及Map的键值对)
+     */
+    private final int maxElements;
+
+    /**
+     * reqData/respData的最大字符数
+     */
+    private final int maxBytes;
+
+
+    public OpRecordLimit(int maxDepth, int maxElements, int maxBytes) {
+        this.maxDepth = Math.max(maxDepth, 0);
+        this.maxElements = Math.max(maxElements, 0);
+        this.maxBytes = Math.max(maxBytes, 0);
+    }
+
+
+    /**
+     * 注解上的设置优先, 注解上的值为负数时使用全局配置
+     * @param annotation 方法上的注解
+     * @param config 全局配置, 可以为null
+     */
+    public static OpRecordLimit of(OpRecordAnnotation annotation, OpRecordProcessConfig config){
+        int maxDepth = annotation.maxDepth() >= 0 ? annotation.maxDepth() : (config == null ? 0 : config.getMaxDepth());
+        int maxElements = annotation.maxElements() >= 0 ? annotation.maxElements() : (config == null ? 0 : config.getMaxElements());
+        int maxBytes = annotation.maxBytes() >= 0 ? annotation.maxBytes() : (config == null ? 0 : config.getMaxBytes());
+        if(maxDepth == 0 && maxElements == 0 && maxBytes == 0){
+            return UNLIMITED;
+        }
+        return new OpRecordLimit(maxDepth, maxElements, maxBytes);
+    }
+
+    /**
+     * 与另一个限制合并, 每一项取两者中更严格的值
+     */
+    public OpRecordLimit min(OpRecordLimit other){
+        return new OpRecordLimit(min(maxDepth, other.maxDepth), min(maxElements, other.maxElements), min(maxBytes, other.maxBytes));
+    }
+
+    private static int min(int a, int b){
+        if(a == 0 || b == 0){
+            return Math.max(a, b);
+        }
+        return Math.min(a, b);
+    }
+
+    public boolean isUnlimited(){
+        return maxDepth == 0 && maxElements == 0 && maxBytes == 0;
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.zxl.op_record_log;
+
+import lombok.Getter;
+import org.springframework.web.bind.annotation.RequestBody;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 被@OpRecordAnnotation注解的方法的处理计划.
+ *   在方法第一次被调用时编译一次，之后只读，可以被多个线程共享
+ */
+@Getter
+public class OpRecordMethodPlan {
+
+    private final Method method;
+
+    private final OpRecordAnnotation annotation;
+
+    /**
+     * 请求的功能(ApiOperation的value)
+     */
+    private final String reqFunc;
+
+    /**
+     * method的所有入参名称
+     */
+    private final List<String> paramNames;
+
+    /**
+     * 被@RequestBody注解的入参的下标, 没有则为-1
+     */
+    private final int bodyParamIndex;
+
+    /**
+     * 返回值的异步类型
+     */
+    private final OpRecordAsyncSupport.Kind asyncKind;
+
+    /**
+     * 返回值中真实的值的类型, 异步返回值时为泛型参数的类型(Flux为元素的类型)
+     */
+    private final Class<?> returnValueType;
+
+    /**
+     * 返回值类型所有的字段的名称
+     */
+    private final List<String> returnFieldNames;
+
+    /**
+     * 请求参数的脱敏字段ast, reqDtLevel不为PART时为空
+     */
+    private final Map<String,DesensitizationField> reqAst;
+
+    /**
+     * 响应报文的脱敏字段ast, respDtLevel不为PART时为空
+     */
+    private final Map<String,DesensitizationField> respAst;
+
+    /**
+     * lazySerialize时请求报文是否需要在执行之前序列化: mutableArgs为true且入参不全是不可变类型
+     */
+    private final boolean argsSnapshotRequired;
+
+    /**
+     * reqDtLevel为ALL时每个入参脱敏之后的 {"paramName":"symbol"}, 否则为null
+     */
+    private final String[] reqAllFragments;
+
+    /**
+     * reqDtLevel为ALL且入参都不为null时的请求报文, 否则为null
+     */
+    private final String reqAllData;
+
+    /**
+     * respDtLevel为ALL时返回值每个字段脱敏之后的 {"fieldName":"symbol"}, 下标与returnFieldNames一致, 否则为null
+     */
+    private final String[] respAllFragments;
+
+    /**
+     * respDtLevel为ALL且返回值的字段都不为null时的响应报文, 否则为null
+     */
+    private final String respAllData;
+
+
+    OpRecordMethodPlan(Method method, OpRecordAnnotation annotation, String reqFunc, List<String> paramNames,
+                       OpRecordAsyncSupport.Kind asyncKind, Class<?> returnValueType, List<String> returnFieldNames,
+                       Map<String, DesensitizationField> reqAst, Map<String, DesensitizationField> respAst) {
+        this.method = method;
+        this.annotation = annotation;
+        this.reqFunc = reqFunc;
+        this.paramNames = Collections.unmodifiableList(paramNames);
+        this.bodyParamIndex = bodyParamIndex(method);
+        this.asyncKind = asyncKind;
+        this.returnValueType = returnValueType;
+        this.returnFieldNames = Collections.unmodifiableList(returnFieldNames);
+        this.reqAst = freeze(reqAst);
+        this.respAst = freeze(respAst);
+        this.argsSnapshotRequired = annotation.mutableArgs() && !isImmutableTypes(method.getParameterTypes());
+        this.reqAllFragments = annotation.reqDtLevel() == DesensitizationLevel.ALL ? allFragments(annotation.symbol(), this.paramNames) : null;
+        this.reqAllData = reqAllFragments == null ? null : join(reqAllFragments);
+        this.respAllFragments = annotation.respDtLevel() == DesensitizationLevel.ALL ? allFragments(annotation.symbol(), this.returnFieldNames) : null;
+        this.respAllData = respAllFragments == null ? null : join(respAllFragments);
+    }
+
+
+    /**
+     * 使用OpRecordJsonWriter生成每个字段全部脱敏之后的json, 保证与逐个字段脱敏的输出完全一致
+     */
+    private static String[] allFragments(String symbol, List<String> names){
+        String[] fragments = new String[names.size()];
+        for(int i=0;i<fragments.length;i++){
+            try(OpRecordJsonWriter writer = new OpRecordJsonWriter(symbol)){
+                writer.startArray();
+                writer.processDtField(DesensitizationLevel.ALL, null, names.get(i), Boolean.TRUE);
+                writer.endArray();
+                String array = writer.toString();
+                fragments[i] = array.substring(1, array.length() - 1);
+            }
+        }
+        return fragments;
+    }
+
+    private static String join(String[] fragments){
+        StringBuilder builder = new StringBuilder().append('[');
+        for(int i=0;i<fragments.length;i++){
+            if(i>0){
+                builder.append(',');
+            }
+            builder.append(fragments[i]);
+        }
+        return builder.append(']').toString();
+    }
+
+
+    private static int bodyParamIndex(Method method){
+        Parameter[] parameters = method.getParameters();
+        for(int i=0;i<parameters.length;i++){
+            if(parameters[i].isAnnotationPresent(RequestBody.class)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * 是否全部是不可变类型(基本类型及其包装类、String、枚举等)
+     */
+    private static boolean isImmutableTypes(Class<?>[] types){
+        for(Class<?> type : types){
+            boolean immutable = type.isPrimitive()
+                    || type.isEnum()
+                    || type == String.class
+                    || Number.class.isAssignableFrom(type) && type.getName().startsWith("java.lang.")
+                    || type == Boolean.class
+                    || type == Character.class
+                    || type == BigDecimal.class
+                    || type == BigInteger.class
+                    || type == UUID.class
+                    || type.getName().startsWith("java.time.");
+            if(!immutable){
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * 将ast及其所有下一层的集合转换为不可修改的集合
+     */
+    private static Map<String,DesensitizationField> freeze(Map<String,DesensitizationField> ast){
+        if(ast==null){
+            return Collections.emptyMap();
+        }
+        for(DesensitizationField field : ast.values()){
+            if(field.getArrayExps()!=null){
+                field.setArrayExps(Collections.unmodifiableList(field.getArrayExps()));
+            }
+            if(field.getFieldMap()!=null){
+                field.setFieldMap(freeze(field.getFieldMap()));
+            }
+        }
+        return Collections.unmodifiableMap(ast);
+    }
+
+}
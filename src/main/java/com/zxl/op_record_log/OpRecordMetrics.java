@@ -0,0 +1,69 @@
+package com.zxl.op_record_log;
+
+import java.lang.reflect.Method;
+
+/**
+ * 操作日志处理的监控指标.
+ *   默认的实现都是空操作, 可以使用InMemoryOpRecordMetrics或者对接自己的监控系统
+ */
+public interface OpRecordMetrics {
+
+    /**
+     * 空操作的实现
+     */
+    OpRecordMetrics NOOP = new OpRecordMetrics() {
+    };
+
+    /**
+     * 错误类型: 报文序列化失败
+     */
+    String ERROR_SERIALIZATION = "serialization";
+
+    /**
+     * 错误类型: 持久化失败
+     */
+    String ERROR_PERSISTENCE = "persistence";
+
+    /**
+     * 错误类型: 被调用的函数抛出异常
+     */
+    String ERROR_PROCEED = "proceed";
+
+
+    /**
+     * 方法被调用(并被采样)一次
+     */
+    default void recordCall(Method method){
+    }
+
+    /**
+     * 一次报文脱敏、序列化的耗时
+     * @param nanos 耗时(纳秒)
+     * @param chars 序列化后的字符数
+     */
+    default void recordSerialization(Method method, long nanos, int chars){
+    }
+
+    /**
+     * 被调用的函数本身的耗时
+     * @param nanos 耗时(纳秒)
+     */
+    default void recordProceed(Method method, long nanos){
+    }
+
+    /**
+     * 一次(批量)持久化的耗时
+     * @param records 记录数
+     * @param nanos 耗时(纳秒)
+     */
+    default void recordPersistence(int records, long nanos){
+    }
+
+    /**
+     * 发生一次错误
+     * @param type 错误类型, 例如ERROR_SERIALIZATION
+     */
+    default void recordError(String type){
+    }
+
+}
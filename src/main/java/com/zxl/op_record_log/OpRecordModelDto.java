@@ -1,7 +1,6 @@
 package com.zxl.op_record_log;
 
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -9,7 +8,6 @@ import java.util.Date;
 
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
 public class OpRecordModelDto {
 
     private Long id;
@@ -58,4 +56,133 @@ public class OpRecordModelDto {
      * 执行耗时(毫秒)
      */
     private long elapsedTime;
+
+    /**
+     * 请求报文序列化的耗时(纳秒). 未开启phaseTimingFlg或未序列化时为null
+     */
+    private Long reqSerializeNanos;
+
+    /**
+     * 被调用的函数执行的耗时(纳秒), 异步返回值为到异步结果完成的耗时. 未开启phaseTimingFlg时为null
+     */
+    private Long proceedNanos;
+
+    /**
+     * 响应报文序列化的耗时(纳秒). 未开启phaseTimingFlg或未序列化时为null
+     */
+    private Long respSerializeNanos;
+
+    /**
+     * 在异步持久化队列中等待的耗时(纳秒). 未开启phaseTimingFlg或同步持久化时为null
+     */
+    private Long queueNanos;
+
+    /**
+     * 记录时使用的降级级别
+     */
+    private OpRecordDegradeLevel degradeLevel;
+
+    /**
+     * reqData/respData的压缩方式, 都没有压缩时为null
+     */
+    private OpRecordPayloadCodec payloadCodec;
+
+    /**
+     * 压缩前reqData的字符数, reqData没有压缩时为null
+     */
+    private Integer reqDataSize;
+
+    /**
+     * 压缩前respData的字符数, respData没有压缩时为null
+     */
+    private Integer respDataSize;
+
+    /**
+     * 聚合模式的汇总记录: 时间窗口(从opTime开始)内的调用次数, 此时elapsedTime为平均耗时. 不是汇总记录时为null
+     */
+    private Long aggregateCount;
+
+    /**
+     * 聚合模式的汇总记录: 时间窗口内抛出异常的调用次数
+     */
+    private Long aggregateErrorCount;
+
+    /**
+     * 聚合模式的汇总记录: 时间窗口内耗时(毫秒)的近似p99
+     */
+    private Long elapsedP99;
+
+    /**
+     * 聚合模式的汇总记录: 时间窗口内的最大耗时(毫秒)
+     */
+    private Long elapsedMax;
+
+    /**
+     * 被调用的函数抛出的异常的类型, 没有异常时为null
+     */
+    private String errorType;
+
+    /**
+     * 异常信息
+     */
+    private String errorMessage;
+
+    /**
+     * 异常的指纹(异常类型和栈顶若干帧的哈希)
+     */
+    private String errorFingerprint;
+
+    /**
+     * 完整的堆栈, 只有指纹第一次出现时记录, 之后为null, 通过errorFingerprint查找
+     */
+    private String errorStack;
+
+    /**
+     * 指纹出现的次数(包括本次)
+     */
+    private Long errorOccurrence;
+
+
+    /**
+     * 只包含基本字段的构造函数, 其他字段通过setter设置
+     */
+    public OpRecordModelDto(Long id, String opAccount, String reqFunc, String reqUrl, String reqMethod, String reqData,
+                            String respData, Boolean success, Date opTime, long elapsedTime) {
+        this.id = id;
+        this.opAccount = opAccount;
+        this.reqFunc = reqFunc;
+        this.reqUrl = reqUrl;
+        this.reqMethod = reqMethod;
+        this.reqData = reqData;
+        this.respData = respData;
+        this.success = success;
+        this.opTime = opTime;
+        this.elapsedTime = elapsedTime;
+    }
+
+
+    /**
+     * 复制所有字段(浅复制), 用于同一条记录分发到多个持久化目标
+     */
+    public OpRecordModelDto copy(){
+        OpRecordModelDto copy = new OpRecordModelDto(id, opAccount, reqFunc, reqUrl, reqMethod, reqData, respData, success, opTime, elapsedTime);
+        copy.reqSerializeNanos = reqSerializeNanos;
+        copy.proceedNanos = proceedNanos;
+        copy.respSerializeNanos = respSerializeNanos;
+        copy.queueNanos = queueNanos;
+        copy.degradeLevel = degradeLevel;
+        copy.payloadCodec = payloadCodec;
+        copy.reqDataSize = reqDataSize;
+        copy.respDataSize = respDataSize;
+        copy.aggregateCount = aggregateCount;
+        copy.aggregateErrorCount = aggregateErrorCount;
+        copy.elapsedP99 = elapsedP99;
+        copy.elapsedMax = elapsedMax;
+        copy.errorType = errorType;
+        copy.errorMessage = errorMessage;
+        copy.errorFingerprint = errorFingerprint;
+        copy.errorStack = errorStack;
+        copy.errorOccurrence = errorOccurrence;
+        return copy;
+    }
 }
@@ -0,0 +1,33 @@
+package com.zxl.op_record_log;
+
+/**
+ * 异步持久化队列已满时的处理策略
+ */
+public enum OpRecordOverflowPolicy {
+
+    /**
+     * 阻塞调用线程，直到队列有空位
+     */
+    BLOCK,
+
+    /**
+     * 丢弃当前(最新)的记录
+     */
+    DROP_NEWEST,
+
+    /**
+     * 丢弃队列中最早的记录，再放入当前记录
+     */
+    DROP_OLDEST,
+
+    /**
+     * 由调用线程直接进行持久化
+     */
+    CALLER_RUNS,
+
+    /**
+     * 写入本地溢出日志, 由后台线程稍后重新持久化. 需要开启spillFlg, 否则创建分发器时抛出异常
+     */
+    SPILL;
+
+}
@@ -0,0 +1,95 @@
+package com.zxl.op_record_log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * 大数组、大集合的并行脱敏.
+ *   元素个数达到threshold时, 按顺序切分成多个分块, 在独立的ForkJoinPool(不使用commonPool)中分别脱敏、序列化,
+ *   再按分块的顺序拼接, 输出与串行脱敏完全一致
+ */
+public class OpRecordParallelMasker {
+
+    /**
+     * 每个分块最少的元素个数, 避免分块过小时调度的开销超过脱敏本身
+     */
+    private static final int MIN_CHUNK_SIZE = 256;
+
+    private final int threshold;
+
+    private final int parallelism;
+
+    private final ForkJoinPool pool;
+
+
+    /**
+     * 分块的脱敏
+     */
+    @FunctionalInterface
+    public interface ChunkWriter {
+        /**
+         * 脱敏下标在[from, to)之间的元素, 返回用逗号分隔的json
+         */
+        String write(int from, int to);
+    }
+
+
+    /**
+     * @param threshold 使用并行脱敏的最少元素个数
+     * @param parallelism 并行的线程数
+     */
+    public OpRecordParallelMasker(int threshold, int parallelism) throws Exception {
+        if(threshold <= 0 || parallelism <= 0){
+            throw new Exception("threshold and parallelism must be greater than 0 !");
+        }
+        this.threshold = threshold;
+        this.parallelism = parallelism;
+        this.pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("op-record-mask-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+
+    /**
+     * 元素个数是否达到并行脱敏的阈值
+     */
+    public boolean isParallel(int size){
+        return size >= threshold;
+    }
+
+
+    /**
+     * 切分成多个分块并行脱敏
+     * @return 按顺序排列的每个分块的结果
+     */
+    public List<String> write(int size, ChunkWriter writer){
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, (size + parallelism * 4 - 1) / (parallelism * 4));
+        List<ForkJoinTask<String>> tasks = new ArrayList<>(size / chunkSize + 1);
+        for(int from = 0; from < size; from += chunkSize){
+            int start = from;
+            int end = Math.min(size, from + chunkSize);
+            tasks.add(pool.submit(() -> writer.write(start, end)));
+        }
+
+        List<String> chunks = new ArrayList<>(tasks.size());
+        for(ForkJoinTask<String> task : tasks){
+            chunks.add(task.join());
+        }
+        return chunks;
+    }
+
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public void shutdown(){
+        pool.shutdown();
+    }
+
+}
@@ -0,0 +1,13 @@
+package com.zxl.op_record_log;
+
+/**
+ * reqData/respData的压缩方式.
+ *   压缩后的报文为UTF-8字节经过zlib格式的Deflate压缩之后的Base64字符串, 使用OpRecordPayloadDecoder解码
+ */
+public enum OpRecordPayloadCodec {
+    DEFLATE,
+    /**
+     * 使用方法的预置字典(OpRecordPayloadCompressor.dictionary)的Deflate, 适合较小的报文
+     */
+    DEFLATE_DICT
+}
@@ -0,0 +1,251 @@
+package com.zxl.op_record_log;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.ResolvableType;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+/**
+ * 持久化之前对reqData/respData进行压缩.
+ *   同一个接口的报文中字段名基本相同, 开启dictionaryFlg时使用由方法的入参名称、入参类型和返回值类型的字段名生成的预置字典,
+ *   字典只与方法的签名有关, 解码时可以由相同的方法重新生成. 方法的入参、返回值的字段变化之后, 之前的记录需要使用旧的字典解码:
+ *   设置了OpRecordDictionaryStore时, 每个字典第一次使用时按字典的id(压缩数据头部中的DICTID)保存, 解码时按id读取
+ *
+ *   Deflater通过有上限的池复用, shutdown()时释放其本地内存. 线程安全
+ */
+@Slf4j
+public class OpRecordPayloadCompressor {
+
+    /**
+     * Deflate的窗口大小, 字典超过该长度时只有最后的部分有效
+     */
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    /**
+     * 生成字典时最多遍历的类型的层数
+     */
+    private static final int MAX_DICTIONARY_DEPTH = 4;
+
+    private static final Map<Method, byte[]> CACHE_DICTIONARY = new ConcurrentHashMap<>();
+
+    private final int minBytes;
+
+    private final boolean dictionaryFlg;
+
+    private final int level;
+
+    /**
+     * 空闲的Deflater. 池满时归还的Deflater直接释放
+     */
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+
+    private volatile boolean shutdown;
+
+    /**
+     * 字典的存储, 为null时不保存字典
+     */
+    private final OpRecordDictionaryStore dictionaryStore;
+
+    /**
+     * 已经保存过字典的方法
+     */
+    private final Map<Method, Boolean> storedDictionary = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<byte[]> buffer = ThreadLocal.withInitial(() -> new byte[8192]);
+
+
+    /**
+     * @param level Deflate的压缩级别(1~9), 级别越低越快
+     * @param dictionaryFlg 是否使用方法的预置字典
+     * @param minBytes 报文的字符数小于该值时不压缩
+     */
+    public OpRecordPayloadCompressor(int level, boolean dictionaryFlg, int minBytes) throws Exception {
+        this(level, dictionaryFlg, minBytes, null);
+    }
+
+    /**
+     * @param dictionaryStore 保存使用过的字典, 用于方法签名变化之后解码之前的记录. 为null时不保存
+     */
+    public OpRecordPayloadCompressor(int level, boolean dictionaryFlg, int minBytes, OpRecordDictionaryStore dictionaryStore) throws Exception {
+        if(level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION){
+            throw new Exception("compress level must be between 1 and 9 !");
+        }
+        this.level = level;
+        this.minBytes = minBytes;
+        this.dictionaryFlg = dictionaryFlg;
+        this.dictionaryStore = dictionaryStore;
+    }
+
+
+    public OpRecordPayloadCodec getCodec(){
+        return dictionaryFlg ? OpRecordPayloadCodec.DEFLATE_DICT : OpRecordPayloadCodec.DEFLATE;
+    }
+
+
+    /**
+     * 压缩报文
+     * @param method 报文所属的方法, 用于获取字典
+     * @return 压缩后的Base64字符串. 报文太短或压缩后没有变小时返回null
+     */
+    public String compress(Method method, String payload){
+        if(payload == null || payload.length() < minBytes){
+            return null;
+        }
+        byte[] input = payload.getBytes(StandardCharsets.UTF_8);
+
+        byte[] out = buffer.get();
+        int length = 0;
+        Deflater deflater = takeDeflater();
+        try {
+            if(dictionaryFlg){
+                deflater.setDictionary(storeDictionary(method));
+            }
+            deflater.setInput(input);
+            deflater.finish();
+            while (!deflater.finished()){
+                if(length == out.length){
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+        }finally {
+            releaseDeflater(deflater);
+        }
+        // 只复用较小的缓冲区, 避免线程长期持有大数组
+        if(out.length <= 64 * 1024){
+            buffer.set(out);
+        }
+
+        // Base64之后的长度
+        if((length + 2) / 3 * 4 >= payload.length()){
+            return null;
+        }
+        return Base64.getEncoder().encodeToString(Arrays.copyOf(out, length));
+    }
+
+
+    private Deflater takeDeflater(){
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(level);
+    }
+
+    private void releaseDeflater(Deflater deflater){
+        deflater.reset();
+        if(shutdown || !deflaters.offer(deflater)){
+            deflater.end();
+        }
+    }
+
+    /**
+     * 释放池中的Deflater, 之后归还的Deflater直接释放
+     */
+    public void shutdown(){
+        shutdown = true;
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null){
+            deflater.end();
+        }
+    }
+
+
+    /**
+     * 获取方法的字典, 第一次使用时保存到dictionaryStore
+     */
+    private byte[] storeDictionary(Method method){
+        byte[] dictionary = dictionary(method);
+        if(dictionaryStore != null && !storedDictionary.containsKey(method)){
+            try {
+                dictionaryStore.save(dictionary);
+            }catch (IOException e){
+                // 不影响压缩, 只是方法签名变化之后之前的记录无法解码
+                log.error("save payload dictionary of {} failed", method, e);
+            }
+            storedDictionary.put(method, Boolean.TRUE);
+        }
+        return dictionary;
+    }
+
+
+    /**
+     * 方法的预置字典: 入参名称以及入参、返回值类型(包括集合的元素类型)中所有的字段名, 格式为 "name":
+     *   Deflate优先匹配距离近的内容, 最外层的名称放在字典的最后
+     */
+    public static byte[] dictionary(Method method){
+        byte[] dictionary = CACHE_DICTIONARY.get(method);
+        if(dictionary == null){
+            dictionary = CACHE_DICTIONARY.computeIfAbsent(method, OpRecordPayloadCompressor::buildDictionary);
+        }
+        return dictionary;
+    }
+
+    private static byte[] buildDictionary(Method method){
+        Set<String> names = new LinkedHashSet<>();
+        OpRecordAsyncSupport.Kind asyncKind = OpRecordAsyncSupport.kindOf(method.getReturnType());
+        collectFieldNames(ResolvableType.forClass(OpRecordAsyncSupport.resolveValueType(method, asyncKind)), 0, names);
+        for(Parameter parameter : method.getParameters()){
+            collectFieldNames(ResolvableType.forType(parameter.getParameterizedType()), 0, names);
+        }
+        for(Parameter parameter : method.getParameters()){
+            names.add(parameter.getName());
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for(String name : names){
+            builder.append('"').append(name).append("\":");
+        }
+        byte[] bytes = builder.toString().getBytes(StandardCharsets.UTF_8);
+        return bytes.length <= MAX_DICTIONARY_SIZE ? bytes : Arrays.copyOfRange(bytes, bytes.length - MAX_DICTIONARY_SIZE, bytes.length);
+    }
+
+    /**
+     * 收集类型中所有的字段名, 下一层的字段名排在前面
+     */
+    private static void collectFieldNames(ResolvableType type, int depth, Set<String> names){
+        if(depth >= MAX_DICTIONARY_DEPTH){
+            return;
+        }
+        if(type.isArray()){
+            collectFieldNames(type.getComponentType(), depth, names);
+            return;
+        }
+        Class<?> clazz = type.resolve();
+        if(clazz == null){
+            return;
+        }
+        if(Collection.class.isAssignableFrom(clazz)){
+            collectFieldNames(type.asCollection().getGeneric(0), depth, names);
+            return;
+        }
+        if(clazz.isPrimitive() || clazz.isEnum() || clazz.getName().startsWith("java.") || clazz.getName().startsWith("javax.")){
+            return;
+        }
+
+        Set<String> fieldNames = new LinkedHashSet<>();
+        for(Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()){
+            for(Field field : c.getDeclaredFields()){
+                if(Modifier.isStatic(field.getModifiers()) || field.isSynthetic()){
+                    continue;
+                }
+                collectFieldNames(ResolvableType.forField(field, type), depth + 1, names);
+                fieldNames.add(field.getName());
+            }
+        }
+        names.addAll(fieldNames);
+    }
+
+}
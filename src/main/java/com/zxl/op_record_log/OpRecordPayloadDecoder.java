@@ -0,0 +1,144 @@
+package com.zxl.op_record_log;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 解码被OpRecordPayloadCompressor压缩的reqData/respData.
+ *   DEFLATE_DICT的报文按压缩数据头部中的字典id(DICTID)查找字典: 与方法当前的字典一致时直接使用, 否则从OpRecordDictionaryStore读取
+ */
+public final class OpRecordPayloadDecoder {
+
+    private OpRecordPayloadDecoder() {
+    }
+
+
+    /**
+     * 获取原始的请求报文, 没有压缩时直接返回reqData
+     * @param method 记录所属的方法, 使用DEFLATE_DICT压缩时需要
+     */
+    public static String decodeReqData(OpRecordModelDto dto, Method method) throws Exception {
+        return decodeReqData(dto, method, null);
+    }
+
+    /**
+     * 获取原始的请求报文, 没有压缩时直接返回reqData
+     * @param method 记录所属的方法, 为null时只从dictionaryStore查找字典
+     * @param dictionaryStore 方法签名变化之后查找旧的字典, 为null时只使用方法当前的字典
+     */
+    public static String decodeReqData(OpRecordModelDto dto, Method method, OpRecordDictionaryStore dictionaryStore) throws Exception {
+        if(dto.getReqDataSize() == null){
+            return dto.getReqData();
+        }
+        return decode(dto.getReqData(), dto.getPayloadCodec(), dictionary(dto.getReqData(), dto.getPayloadCodec(), method, dictionaryStore));
+    }
+
+    /**
+     * 获取原始的响应报文, 没有压缩时直接返回respData
+     * @param method 记录所属的方法, 使用DEFLATE_DICT压缩时需要
+     */
+    public static String decodeRespData(OpRecordModelDto dto, Method method) throws Exception {
+        return decodeRespData(dto, method, null);
+    }
+
+    /**
+     * 获取原始的响应报文, 没有压缩时直接返回respData
+     * @param method 记录所属的方法, 为null时只从dictionaryStore查找字典
+     * @param dictionaryStore 方法签名变化之后查找旧的字典, 为null时只使用方法当前的字典
+     */
+    public static String decodeRespData(OpRecordModelDto dto, Method method, OpRecordDictionaryStore dictionaryStore) throws Exception {
+        if(dto.getRespDataSize() == null){
+            return dto.getRespData();
+        }
+        return decode(dto.getRespData(), dto.getPayloadCodec(), dictionary(dto.getRespData(), dto.getPayloadCodec(), method, dictionaryStore));
+    }
+
+    private static byte[] dictionary(String data, OpRecordPayloadCodec codec, Method method, OpRecordDictionaryStore dictionaryStore) throws Exception {
+        Integer id = codec == OpRecordPayloadCodec.DEFLATE_DICT ? dictionaryIdOf(data) : null;
+        if(id == null){
+            return null;
+        }
+        byte[] current = method == null ? null : OpRecordPayloadCompressor.dictionary(method);
+        if(current != null && OpRecordDictionaryStore.idOf(current) == id){
+            return current;
+        }
+        byte[] stored = dictionaryStore == null ? null : dictionaryStore.load(id);
+        // 都找不到时使用方法当前的字典, 解码时报告字典不一致
+        return stored != null ? stored : current;
+    }
+
+
+    /**
+     * 压缩后的报文使用的字典id(zlib头部的DICTID), 没有使用字典时返回null
+     */
+    public static Integer dictionaryIdOf(String data){
+        // zlib头部: [CMF][FLG][DICTID 4字节], 只需要解码前8个Base64字符
+        if(data == null || data.length() < 8){
+            return null;
+        }
+        byte[] header = Base64.getDecoder().decode(data.substring(0, 8));
+        if((header[1] & 0x20) == 0){
+            return null;
+        }
+        return ((header[2] & 0xFF) << 24) | ((header[3] & 0xFF) << 16) | ((header[4] & 0xFF) << 8) | (header[5] & 0xFF);
+    }
+
+
+    /**
+     * 解码压缩后的报文
+     * @param dictionary 压缩时使用的字典, 没有使用字典时为null
+     */
+    public static String decode(String data, OpRecordPayloadCodec codec, byte[] dictionary) throws Exception {
+        if(codec == null){
+            throw new Exception("payload codec is null !");
+        }
+        byte[] input = Base64.getDecoder().decode(data);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            byte[] out = new byte[Math.max(input.length * 4, 64)];
+            int length = 0;
+            while (!inflater.finished()){
+                if(length == out.length){
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int n = inflater.inflate(out, length, out.length - length);
+                length += n;
+                if(n > 0){
+                    continue;
+                }
+                if(inflater.needsDictionary()){
+                    setDictionary(inflater, dictionary);
+                }else if(inflater.needsInput()){
+                    throw new Exception("payload is truncated !");
+                }
+            }
+            return new String(out, 0, length, StandardCharsets.UTF_8);
+        }catch (DataFormatException e){
+            throw new Exception("payload is not deflate data !", e);
+        }finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 校验字典与压缩时使用的字典一致
+     */
+    private static void setDictionary(Inflater inflater, byte[] dictionary) throws Exception {
+        if(dictionary == null){
+            throw new Exception("payload requires a dictionary !");
+        }
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        if((int) adler.getValue() != inflater.getAdler()){
+            throw new Exception("dictionary mismatch, the method signature may have changed !");
+        }
+        inflater.setDictionary(dictionary);
+    }
+
+}
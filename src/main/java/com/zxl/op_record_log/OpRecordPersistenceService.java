@@ -1,6 +1,8 @@
 package com.zxl.op_record_log;
 
 
+import java.util.List;
+
 /**
  * 系统操作日志持久化服务接口
  */
@@ -10,4 +12,14 @@ public interface OpRecordPersistenceService {
      * 持久化日志数据
      */
     void persistence(OpRecordModelDto data);
+
+    /**
+     * 批量持久化日志数据.
+     *   默认逐条调用persistence, 实现类可以重写为批量插入
+     */
+    default void persistenceBatch(List<OpRecordModelDto> dataList){
+        for(OpRecordModelDto data : dataList){
+            persistence(data);
+        }
+    }
 }
@@ -21,4 +21,241 @@ public class OpRecordProcessConfig {
     private boolean logFlg;
 
 
+    /**
+     * 是否异步持久化. 开启后日志记录先放入内存队列，由后台线程进行持久化
+     */
+    private boolean asyncFlg;
+
+    /**
+     * 异步持久化队列的容量
+     */
+    private int queueCapacity = 10000;
+
+    /**
+     * 异步持久化的后台线程数
+     */
+    private int workerThreads = 1;
+
+    /**
+     * 异步持久化队列已满时的处理策略
+     */
+    private OpRecordOverflowPolicy overflowPolicy = OpRecordOverflowPolicy.BLOCK;
+
+    /**
+     * 异步持久化时每批次的最大记录数
+     */
+    private int batchSize = 100;
+
+    /**
+     * 异步持久化时一个批次最长的等待时间(毫秒), 达到batchSize或等待超时两者先到者触发持久化
+     */
+    private long lingerMillis = 50;
+
+    /**
+     * reqData/respData的最大遍历深度, 0表示不限制. 可以被注解上的maxDepth覆盖
+     */
+    private int maxDepth;
+
+    /**
+     * reqData/respData最多遍历的集合元素个数, 0表示不限制. 可以被注解上的maxElements覆盖
+     */
+    private int maxElements;
+
+    /**
+     * reqData/respData的最大字符数, 0表示不限制. 可以被注解上的maxBytes覆盖
+     */
+    private int maxBytes;
+
+    /**
+     * 采样率, 取值0到1. 可以被注解上的sampleRate覆盖
+     */
+    private double sampleRate = 1;
+
+    /**
+     * 每个账号每秒最多记录的次数, 0表示不限制. 可以被注解上的accountRateLimit覆盖
+     */
+    private int accountRateLimit;
+
+    /**
+     * 是否对所有方法使用尾部采样
+     */
+    private boolean tailSampling;
+
+    /**
+     * 尾部采样的慢调用阈值(毫秒). 可以被注解上的slowThresholdMillis覆盖
+     */
+    private long slowThresholdMillis = 1000;
+
+    /**
+     * 是否开启本地溢出日志. 开启后持久化失败的记录写入本地文件, 在持久化服务恢复后重新持久化
+     */
+    private boolean spillFlg;
+
+    /**
+     * 本地溢出日志的目录
+     */
+    private String spillDir = "op_record_spill";
+
+    /**
+     * 本地溢出日志每个段文件的大小(字节)
+     */
+    private long spillSegmentBytes = 64L * 1024 * 1024;
+
+    /**
+     * 本地溢出日志重新持久化的间隔(毫秒)
+     */
+    private long spillReplayIntervalMillis = 5000;
+
+    /**
+     * 本地溢出日志使用的编解码器
+     */
+    private OpRecordCodec.Type spillCodec = OpRecordCodec.Type.BINARY;
+
+    /**
+     * 是否记录各阶段的耗时(请求序列化、函数执行、响应序列化、队列等待), 用于区分接口本身慢还是记录操作日志导致的慢
+     */
+    private boolean phaseTimingFlg;
+
+    /**
+     * 是否开启自动降级. 开启后记录操作日志的开销超过预算时逐级降级: FULL -> TRUNCATED -> METADATA_ONLY
+     */
+    private boolean degradeFlg;
+
+    /**
+     * 开销预算: 序列化耗时占(序列化耗时+函数执行耗时)的比例超过该值时降级
+     */
+    private double degradeOverheadRatio = 0.2;
+
+    /**
+     * 开销比例低于该值时恢复, 应小于degradeOverheadRatio
+     */
+    private double recoverOverheadRatio = 0.1;
+
+    /**
+     * 异步持久化队列的使用率超过该值时降级
+     */
+    private double degradeQueueRatio = 0.8;
+
+    /**
+     * 异步持久化队列的使用率低于该值时恢复, 应小于degradeQueueRatio
+     */
+    private double recoverQueueRatio = 0.5;
+
+    /**
+     * 评估是否降级、恢复的间隔(毫秒), 每次最多变化一级
+     */
+    private long degradeIntervalMillis = 1000;
+
+    /**
+     * 连续多少个评估周期低于恢复阈值时才恢复一级.
+     *  降级后序列化的开销本身会变小, 恢复需要比降级更慢, 避免在两个级别之间反复切换
+     */
+    private int recoverIntervals = 5;
+
+    /**
+     * TRUNCATED级别时最多遍历的集合元素个数
+     */
+    private int degradeMaxElements = 100;
+
+    /**
+     * TRUNCATED级别时reqData/respData的最大字符数
+     */
+    private int degradeMaxBytes = 4096;
+
+    /**
+     * 数组、集合的元素个数达到该值时使用并行脱敏, 0表示不使用. 只在没有maxDepth、maxElements、maxBytes限制时生效
+     */
+    private int parallelMaskThreshold;
+
+    /**
+     * 并行脱敏的线程数
+     */
+    private int parallelMaskThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 是否使用OpRecordBodyCachingFilter缓存的原始请求体记录@RequestBody的入参, 需要同时注册该过滤器.
+     *  原始请求体按该入参的reqDtFields进行流式脱敏, 没有被完整缓存时仍然序列化入参对象
+     */
+    private boolean rawBodyFlg;
+
+    /**
+     * OpRecordBodyCachingFilter最多缓存的请求体字节数
+     */
+    private int rawBodyMaxBytes = 64 * 1024;
+
+    /**
+     * 是否在持久化之前压缩reqData/respData
+     */
+    private boolean compressFlg;
+
+    /**
+     * Deflate的压缩级别(1~9)
+     */
+    private int compressLevel = 1;
+
+    /**
+     * 压缩时是否使用方法的预置字典
+     */
+    private boolean compressDictionaryFlg;
+
+    /**
+     * 报文的字符数小于该值时不压缩
+     */
+    private int compressMinBytes = 256;
+
+    /**
+     * 保存压缩时使用的预置字典的目录, 方法签名变化之后用于解码之前的记录. 为空时不保存
+     */
+    private String compressDictionaryDir = "op_record_dictionary";
+
+    /**
+     * 聚合模式(OpRecordAnnotation.aggregate)的时间窗口长度(毫秒)
+     */
+    private long aggregateWindowMillis = 60000;
+
+    /**
+     * 是否记录抛出异常的调用(success为false, 包含异常的类型、信息和指纹)
+     */
+    private boolean errorRecordFlg = true;
+
+    /**
+     * 最多缓存的异常指纹个数, 达到后清空
+     */
+    private int errorFingerprintCapacity = 1024;
+
+    /**
+     * 计算异常指纹使用的栈顶帧数
+     */
+    private int errorFingerprintFrames = 5;
+
+    /**
+     * 记录的堆栈的最大字符数
+     */
+    private int errorStackMaxChars = 8192;
+
+    /**
+     * 是否由OpRecordIdGenerator生成记录的id. 关闭时id为null, 由数据库生成
+     */
+    private boolean idFlg;
+
+    /**
+     * 生成id使用的节点id(0~1023), 多个节点写入同一张表时必须不同
+     */
+    private int nodeId;
+
+    /**
+     * 延迟序列化(lazySerialize)的后台线程数
+     */
+    private int serializeThreads = 1;
+
+    /**
+     * 延迟序列化的队列容量, 队列已满时由请求线程直接序列化
+     */
+    private int serializeQueueCapacity = 10000;
+
+    /**
+     * 关闭时等待队列中剩余记录持久化完成的最长时间(毫秒)
+     */
+    private long shutdownTimeoutMillis = 10000;
+
 }
@@ -0,0 +1,43 @@
+package com.zxl.op_record_log;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * OpRecordBodyCachingFilter缓存的原始请求体.
+ *   开启rawBodyFlg时代替@RequestBody的入参进行序列化, 按该入参的脱敏规则直接对原始的json进行流式脱敏, 不需要遍历入参对象
+ */
+public final class OpRecordRawBody {
+
+    private final byte[] content;
+
+    private final Charset charset;
+
+
+    public OpRecordRawBody(byte[] content, Charset charset) {
+        this.content = content;
+        this.charset = charset;
+    }
+
+
+    /**
+     * 原始请求体的字节数
+     */
+    public int length(){
+        return content.length;
+    }
+
+    public String getJson(){
+        return new String(content, charset);
+    }
+
+    /**
+     * 直接读取缓存的字节, 不复制请求体
+     */
+    public Reader openReader(){
+        return new InputStreamReader(new ByteArrayInputStream(content), charset);
+    }
+
+}
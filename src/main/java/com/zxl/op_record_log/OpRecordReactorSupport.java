@@ -0,0 +1,58 @@
+package com.zxl.op_record_log;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Mono、Flux的支持. 只在classpath中存在reactor-core时才会被加载
+ */
+final class OpRecordReactorSupport {
+
+    private OpRecordReactorSupport() {
+    }
+
+
+    static OpRecordAsyncSupport.Kind kindOf(Class<?> returnType){
+        if(Mono.class.isAssignableFrom(returnType)){
+            return OpRecordAsyncSupport.Kind.MONO;
+        }
+        if(Flux.class.isAssignableFrom(returnType)){
+            return OpRecordAsyncSupport.Kind.FLUX;
+        }
+        return OpRecordAsyncSupport.Kind.NONE;
+    }
+
+    static Class<?> asyncType(OpRecordAsyncSupport.Kind kind){
+        return kind == OpRecordAsyncSupport.Kind.MONO ? Mono.class : Flux.class;
+    }
+
+
+    static Object attach(OpRecordAsyncSupport.Kind kind, Object result, int maxElements, OpRecordAsyncSupport.Completion completion){
+        if(kind == OpRecordAsyncSupport.Kind.MONO){
+            return ((Mono<?>) result)
+                    .doOnSuccess(value -> completion.complete(value, null))
+                    .doOnError(error -> completion.complete(null, error))
+                    .doOnCancel(() -> completion.complete(null, new CancellationException("mono is cancelled")));
+        }
+
+        Flux<?> flux = (Flux<?>) result;
+        // 每次订阅使用独立的元素列表
+        return Flux.defer(() -> {
+            List<Object> values = new ArrayList<>();
+            return flux
+                    .doOnNext(value -> {
+                        if(values.size() < maxElements){
+                            values.add(value);
+                        }
+                    })
+                    .doOnComplete(() -> completion.complete(values, null))
+                    .doOnError(error -> completion.complete(null, error))
+                    .doOnCancel(() -> completion.complete(null, new CancellationException("flux is cancelled")));
+        });
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.zxl.op_record_log;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 头部采样: 在进行任何json处理之前决定本次调用是否需要记录.
+ *   先按采样率随机采样, 再按(方法,账号)进行限流
+ */
+public class OpRecordSampler {
+
+    /**
+     * 每个方法最多保存的账号令牌桶个数, 超过时清空, 避免账号过多时占用过多内存
+     */
+    private static final int MAX_ACCOUNT_BUCKETS = 10000;
+
+    private final OpRecordProcessConfig config;
+
+    private final Map<Method, Map<String, OpRecordTokenBucket>> accountBuckets = new ConcurrentHashMap<>();
+
+
+    public OpRecordSampler(OpRecordProcessConfig config) {
+        this.config = config;
+    }
+
+
+    /**
+     * 本次调用是否需要记录
+     * @param plan 方法的处理计划
+     * @param account 操作人账号
+     */
+    public boolean sample(OpRecordMethodPlan plan, String account){
+        OpRecordAnnotation annotation = plan.getAnnotation();
+
+        double sampleRate = annotation.sampleRate() >= 0 ? annotation.sampleRate() : config.getSampleRate();
+        if(sampleRate < 1 && (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate)){
+            return false;
+        }
+
+        int accountRateLimit = annotation.accountRateLimit() >= 0 ? annotation.accountRateLimit() : config.getAccountRateLimit();
+        if(accountRateLimit <= 0){
+            return true;
+        }
+
+        Map<String, OpRecordTokenBucket> buckets = accountBuckets.computeIfAbsent(plan.getMethod(), m -> new ConcurrentHashMap<>());
+        String key = account == null ? "" : account;
+        OpRecordTokenBucket bucket = buckets.get(key);
+        if(bucket == null){
+            if(buckets.size() >= MAX_ACCOUNT_BUCKETS){
+                buckets.clear();
+            }
+            bucket = buckets.computeIfAbsent(key, k -> new OpRecordTokenBucket(accountRateLimit));
+        }
+        return bucket.tryAcquire();
+    }
+
+
+    /**
+     * 是否使用尾部采样
+     */
+    public boolean isTailSampling(OpRecordMethodPlan plan){
+        return plan.getAnnotation().tailSampling() || config.isTailSampling();
+    }
+
+    /**
+     * 尾部采样时, 调用耗时超过该值(毫秒)才保留完整的报文
+     */
+    public long getSlowThresholdMillis(OpRecordMethodPlan plan){
+        long threshold = plan.getAnnotation().slowThresholdMillis();
+        return threshold >= 0 ? threshold : config.getSlowThresholdMillis();
+    }
+
+}
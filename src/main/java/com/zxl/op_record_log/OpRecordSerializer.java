@@ -0,0 +1,82 @@
+package com.zxl.op_record_log;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 延迟序列化的后台线程池.
+ *   lazySerialize的方法在返回之后, 将报文的脱敏、序列化以及持久化交给该线程池执行.
+ *   队列已满或已关闭时由调用线程直接执行, 不会丢失记录
+ */
+@Slf4j
+public class OpRecordSerializer {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 因队列已满或已关闭而由调用线程执行的任务数
+     */
+    private final AtomicLong callerRunsCount = new AtomicLong();
+
+
+    public OpRecordSerializer(int threads, int queueCapacity) throws Exception {
+        if(threads <= 0 || queueCapacity <= 0){
+            throw new Exception("threads and queueCapacity must be greater than 0 !");
+        }
+
+        AtomicInteger index = new AtomicInteger();
+        // 线程在第一次提交任务时才创建, 没有lazySerialize的方法时不占用线程
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, "op-record-serializer-" + index.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (r, e) -> {
+                    callerRunsCount.incrementAndGet();
+                    r.run();
+                });
+    }
+
+
+    /**
+     * 提交一个序列化任务
+     */
+    public void execute(Runnable task){
+        executor.execute(task);
+    }
+
+
+    /**
+     * 关闭线程池，并在timeoutMillis内等待队列中剩余的任务执行完成
+     */
+    public void shutdown(long timeoutMillis){
+        executor.shutdown();
+        try {
+            if(!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)){
+                log.warn("OpRecordSerializer shutdown timeout, {} records are not serialized!", executor.getQueue().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * 当前队列中等待序列化的记录数
+     */
+    public int getQueueDepth(){
+        return executor.getQueue().size();
+    }
+
+    public long getCallerRunsCount(){
+        return callerRunsCount.get();
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.zxl.op_record_log;
+
+import lombok.Data;
+
+/**
+ * 额外的持久化目标, 例如数据库之外的日志文件、搜索引擎.
+ *   每个目标有独立的有界队列、后台线程和批次大小, 一个目标持久化变慢或失败不影响其他目标
+ */
+@Data
+public class OpRecordSink {
+
+    /**
+     * 目标的名称, 用于线程名称和监控
+     */
+    private String name;
+
+    private OpRecordPersistenceService persistenceService;
+
+    /**
+     * 路由规则, 每个方法第一次被调用时判断一次. 默认所有方法都持久化到该目标
+     */
+    private OpRecordSinkFilter filter = OpRecordSinkFilter.ALL;
+
+    /**
+     * 队列容量
+     */
+    private int queueCapacity = 10000;
+
+    /**
+     * 后台线程数
+     */
+    private int workerThreads = 1;
+
+    /**
+     * 队列已满时的处理策略. 默认丢弃新的记录; 使用BLOCK时该目标变慢会阻塞请求线程, 进而影响其他目标
+     */
+    private OpRecordOverflowPolicy overflowPolicy = OpRecordOverflowPolicy.DROP_NEWEST;
+
+    /**
+     * 一个批次的最大记录数
+     */
+    private int batchSize = 100;
+
+    /**
+     * 一个批次最长的等待时间(毫秒)
+     */
+    private long lingerMillis = 50;
+
+
+    public OpRecordSink() {
+    }
+
+    public OpRecordSink(String name, OpRecordPersistenceService persistenceService, OpRecordSinkFilter filter) {
+        this.name = name;
+        this.persistenceService = persistenceService;
+        this.filter = filter == null ? OpRecordSinkFilter.ALL : filter;
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.zxl.op_record_log;
+
+/**
+ * OpRecordSink的路由规则.
+ *   根据方法的处理计划(方法、注解的属性等)判断是否持久化到该目标, 每个方法只判断一次, 结果被缓存
+ */
+@FunctionalInterface
+public interface OpRecordSinkFilter {
+
+    OpRecordSinkFilter ALL = plan -> true;
+
+    boolean accept(OpRecordMethodPlan plan);
+
+}
@@ -0,0 +1,643 @@
+package com.zxl.op_record_log;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * 本地溢出日志.
+ *   持久化服务失败或变慢时, 记录先追加写入本地文件, 由后台线程在持久化服务恢复后重新持久化.
+ *
+ *   文件按段滚动(spill-序号.log), 每段通过内存映射的FileChannel顺序写入.
+ *   段的头部为 [int 魔数][int 编解码器id], 之后每条记录的格式为:
+ *      [int 长度][int crc32][OpRecordCodec编码的字节]
+ *   有状态的编解码器(例如字典)在每个段的开始重置, 因此每个段可以独立解码.
+ *   长度为0表示该段后面没有数据; 重新持久化成功的记录会把长度改为负数, 重启后不会再次持久化.
+ *   启动时总是新建一个段, 已有的段都作为待重新持久化的段, 读取到第一条长度或crc不合法的记录为止(崩溃时写了一半的记录).
+ *   全部重新持久化成功的段会被删除. 无法解析的段重命名为.corrupt; 多轮失败且期间持久化服务有过成功的记录追加到parked.jsonl, 不再重试.
+ *   关闭的段会立即解除内存映射.
+ *
+ *   注意: 写入后不会每次都调用force(), 进程崩溃时数据由操作系统的页缓存保证, 操作系统崩溃时可能丢失最后一部分数据
+ */
+@Slf4j
+public class OpRecordSpillLog {
+
+    /**
+     * 每条记录头部的字节数: 长度+crc32
+     */
+    private static final int HEADER_BYTES = 8;
+
+    /**
+     * 段头部的字节数: 魔数+编解码器id
+     */
+    private static final int SEGMENT_HEADER_BYTES = 8;
+
+    private static final int SEGMENT_MAGIC = 0x4F50534C;
+
+    private static final String SEGMENT_PREFIX = "spill-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * 无法解析的段重命名时增加的后缀
+     */
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+
+    /**
+     * 多次重试仍然无法持久化的记录
+     */
+    private static final String PARKED_FILE = "parked.jsonl";
+
+    private static final OpRecordCodec PARKED_CODEC = new JsonOpRecordCodec();
+
+    /**
+     * 一条记录最多失败的次数, 达到后且期间持久化服务有过成功时被搁置
+     */
+    private static final int MAX_REPLAY_ATTEMPTS = 3;
+
+    /**
+     * 本轮没有记录持久化成功时, 正在写入的段至少写入多少轮之后才关闭并重新持久化.
+     *   避免持久化服务不可用时每轮都新建段, 同时已关闭的段中只剩无法持久化的记录时不会一直等到段写满
+     */
+    private static final int STALLED_SEAL_ROUNDS = 10;
+
+    private final File dir;
+
+    private final long segmentBytes;
+
+    private final OpRecordPersistenceService persistenceService;
+
+    private final int batchSize;
+
+    private final long replayIntervalMillis;
+
+    /**
+     * 写入使用的编解码器, 只在持有锁时使用
+     */
+    private final OpRecordCodec codec;
+
+    private final Thread replayer;
+
+    /**
+     * 下一个段的序号
+     */
+    private long nextSegmentId;
+
+    /**
+     * 当前正在写入的段
+     */
+    private Segment active;
+
+    private final AtomicLong spilledCount = new AtomicLong();
+
+    private final AtomicLong replayedCount = new AtomicLong();
+
+    private final AtomicLong parkedCount = new AtomicLong();
+
+    /**
+     * 记录(段名@位置) -> 失败的次数, 只在重新持久化的线程中访问
+     */
+    private final Map<String, Attempt> attempts = new HashMap<>();
+
+    /**
+     * 重新持久化的轮数, 以及最后一次有记录持久化成功的轮数, 只在重新持久化的线程中访问
+     */
+    private long rounds;
+
+    private long lastHealthyRound = -1;
+
+    private volatile boolean running = true;
+
+
+    public OpRecordSpillLog(File dir, long segmentBytes, OpRecordPersistenceService persistenceService, int batchSize, long replayIntervalMillis, OpRecordCodec.Type codecType) throws IOException {
+        if(!dir.exists() && !dir.mkdirs()){
+            throw new IOException("create spill dir failed : " + dir.getAbsolutePath());
+        }
+        if(segmentBytes <= SEGMENT_HEADER_BYTES + HEADER_BYTES || segmentBytes > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("segmentBytes must be between " + (SEGMENT_HEADER_BYTES + HEADER_BYTES) + " and " + Integer.MAX_VALUE + " !");
+        }
+
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.persistenceService = persistenceService;
+        this.batchSize = Math.max(batchSize, 1);
+        this.replayIntervalMillis = replayIntervalMillis;
+        this.codec = (codecType == null ? OpRecordCodec.Type.BINARY : codecType).create();
+
+        // 崩溃恢复: 已有的段都作为待重新持久化的段, 新数据写入新的段
+        List<File> existing = listSegments();
+        this.nextSegmentId = existing.isEmpty() ? 0 : segmentId(existing.get(existing.size()-1)) + 1;
+        if(!existing.isEmpty()){
+            log.info("OpRecordSpillLog found {} segments to replay in {}", existing.size(), dir.getAbsolutePath());
+        }
+
+        this.replayer = new Thread(this::replayLoop, "op-record-spill-replayer");
+        this.replayer.setDaemon(true);
+        this.replayer.start();
+    }
+
+
+    /**
+     * 追加写入记录
+     */
+    public synchronized void append(List<OpRecordModelDto> records) throws IOException {
+        for(OpRecordModelDto record : records){
+            if(active == null){
+                roll(0);
+            }
+            byte[] bytes = codec.encode(record);
+            int frameBytes = HEADER_BYTES + bytes.length;
+            if(active.buffer.remaining() < frameBytes){
+                // 新段需要重置编解码器, 重新编码
+                roll(frameBytes);
+                bytes = codec.encode(record);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            MappedByteBuffer buffer = active.buffer;
+            int position = buffer.position();
+            // 先写入数据和crc, 最后写入长度, 长度不为0时整条记录已经完整
+            buffer.position(position + 4);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(bytes);
+            buffer.putInt(position, bytes.length);
+        }
+        spilledCount.addAndGet(records.size());
+    }
+
+
+    /**
+     * 关闭当前段并新建一个段
+     * @param minBytes 新段至少需要的字节数
+     */
+    private void roll(int minBytes) throws IOException {
+        if(active != null){
+            active.close();
+        }
+        File file = new File(dir, String.format("%s%020d%s", SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+        active = Segment.open(file, Math.max(segmentBytes, SEGMENT_HEADER_BYTES + (long) minBytes));
+        active.buffer.putInt(SEGMENT_MAGIC);
+        active.buffer.putInt(codec.getType().getId());
+        codec.reset();
+    }
+
+
+    /**
+     * 当前段有数据且已经写入了足够长的时间时将其关闭, 使其可以被重新持久化
+     * @param minAgeMillis 段创建之后至少经过的毫秒数
+     * @return 被关闭的段, 没有时为null
+     */
+    private synchronized File sealActive(long minAgeMillis) throws IOException {
+        if(active != null && active.buffer.position() > SEGMENT_HEADER_BYTES
+                && System.currentTimeMillis() - active.openedMillis >= minAgeMillis){
+            File file = active.file;
+            active.close();
+            active = null;
+            return file;
+        }
+        return null;
+    }
+
+    private synchronized boolean isActive(File file){
+        return active != null && active.file.equals(file);
+    }
+
+
+    private void replayLoop(){
+        while (running){
+            try {
+                TimeUnit.MILLISECONDS.sleep(replayIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                replay();
+            }catch (Exception e){
+                // 持久化服务还没有恢复, 等待下一次重试
+                log.warn("OpRecordSpillLog replay failed, retry after {} ms : {}", replayIntervalMillis, e.toString());
+            }
+        }
+    }
+
+
+    /**
+     * 将所有已关闭的段重新持久化, 成功后删除.
+     *   一个段无法解析时将其重命名为.corrupt并继续下一个段; 一个段中的记录无法持久化时跳过该段的剩余部分, 下一轮再重试
+     */
+    private void replay() throws IOException {
+        Round round = new Round(++rounds);
+        for(File file : listSegments()){
+            if(!running){
+                return;
+            }
+            if(!isActive(file)){
+                replayFile(file, round);
+            }
+        }
+
+        // 已关闭的段都已处理且持久化服务没有不可用时, 关闭正在写入的段并在本轮重新持久化.
+        // 本轮没有成功的记录时(服务不可用, 或者只剩无法持久化的记录), 正在写入的段写入足够长的时间之后才关闭,
+        // 其中的记录持久化成功时可以证明服务可用, 使无法持久化的记录被搁置
+        if(running){
+            boolean healthy = round.succeeded > 0 || round.failed.isEmpty();
+            File sealed = sealActive(healthy ? 0 : replayIntervalMillis * STALLED_SEAL_ROUNDS);
+            if(sealed != null){
+                replayFile(sealed, round);
+            }
+        }
+
+        for(String key : round.failed){
+            attempts.computeIfAbsent(key, k -> new Attempt(round.number)).count++;
+        }
+        if(round.succeeded > 0){
+            lastHealthyRound = round.number;
+        }else if(!round.failed.isEmpty()){
+            throw new IOException("persistence service is unavailable, " + round.failed.size() + " records are not replayed");
+        }
+    }
+
+
+    /**
+     * 重新持久化一个已关闭的段, 全部完成后删除; 无法解析时重命名为.corrupt
+     */
+    private void replayFile(File file, Round round) throws IOException {
+        boolean completed;
+        try {
+            completed = replaySegment(file, round);
+        }catch (CorruptSegmentException e){
+            quarantine(file, e);
+            return;
+        }
+        if(completed){
+            forgetAttempts(file);
+            if(!file.delete()){
+                log.warn("delete spill segment failed : {}", file.getAbsolutePath());
+            }
+        }
+    }
+
+
+    /**
+     * 重新持久化一个段. 无法持久化的记录留在段中, 下一轮再重试
+     * @return 段中的记录是否已经全部重新持久化(或被搁置)
+     */
+    private boolean replaySegment(File file, Round round) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            try {
+                return replaySegment(file, buffer, round);
+            }finally {
+                buffer.force();
+                unmap(buffer);
+            }
+        }
+    }
+
+    private boolean replaySegment(File file, MappedByteBuffer buffer, Round round) throws IOException {
+        round.segmentFailed = false;
+        if(buffer.limit() < SEGMENT_HEADER_BYTES || buffer.getInt(0) == 0){
+            // 崩溃时还没有写入头部的空段
+            return true;
+        }
+        if(buffer.getInt(0) != SEGMENT_MAGIC){
+            throw new CorruptSegmentException("invalid spill segment magic", null);
+        }
+        OpRecordCodec decoder;
+        try {
+            decoder = OpRecordCodec.Type.of(buffer.getInt(4)).create();
+        }catch (RuntimeException e){
+            throw new CorruptSegmentException("unknown codec id " + buffer.getInt(4), e);
+        }
+
+        List<OpRecordModelDto> batch = new ArrayList<>(batchSize);
+        List<Integer> positions = new ArrayList<>(batchSize);
+        int position = SEGMENT_HEADER_BYTES;
+        while (position + HEADER_BYTES <= buffer.limit()){
+            int length = buffer.getInt(position);
+            int bytesLength = Math.abs(length);
+            if(length == 0 || length == Integer.MIN_VALUE || position + HEADER_BYTES + bytesLength > buffer.limit()){
+                break;
+            }
+            byte[] bytes = new byte[bytesLength];
+            buffer.position(position + HEADER_BYTES);
+            buffer.get(bytes);
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            if((int) crc.getValue() != buffer.getInt(position + 4)){
+                // 崩溃时写了一半的记录
+                log.warn("spill segment {} is corrupted at {}, the rest is skipped", file.getName(), position);
+                break;
+            }
+
+            // 已经重新持久化过的记录也需要解码, 以便有状态的编解码器保持一致
+            OpRecordModelDto record;
+            try {
+                record = decoder.decode(bytes);
+            }catch (RuntimeException e){
+                throw new CorruptSegmentException("decode record at " + position + " failed", e);
+            }
+            if(length > 0){
+                if(isPoison(attempts.get(attemptKey(file, position)))){
+                    park(file, position, record);
+                    buffer.putInt(position, -length);
+                }else {
+                    batch.add(record);
+                    positions.add(position);
+                }
+            }
+            position += HEADER_BYTES + bytesLength;
+
+            if(batch.size() >= batchSize && !flush(file, buffer, batch, positions, round)){
+                return false;
+            }
+        }
+        return flush(file, buffer, batch, positions, round) && !round.segmentFailed;
+    }
+
+
+    /**
+     * 重新持久化一批记录, 成功的记录的长度标记为负数.
+     *   整批失败时逐条重试, 找出无法持久化的记录. 一条记录失败时继续重试其余的记录, 任意一条成功即可证明持久化服务可用
+     * @return 是否继续处理该段的剩余记录. 本轮还没有任何记录成功(持久化服务可能不可用)时返回false
+     */
+    private boolean flush(File file, MappedByteBuffer buffer, List<OpRecordModelDto> batch, List<Integer> positions, Round round){
+        if(batch.isEmpty()){
+            return true;
+        }
+        try {
+            try {
+                persistenceService.persistenceBatch(batch);
+                for(int position : positions){
+                    markReplayed(buffer, position);
+                }
+                round.succeeded += batch.size();
+                return true;
+            }catch (RuntimeException e){
+                log.warn("OpRecordSpillLog replay batch of {} failed, retry one by one : {}", batch.size(), e.toString());
+            }
+
+            for(int i=0;i<batch.size();i++){
+                int position = positions.get(i);
+                try {
+                    persistenceService.persistenceBatch(Collections.singletonList(batch.get(i)));
+                    markReplayed(buffer, position);
+                    round.succeeded++;
+                }catch (RuntimeException e){
+                    round.segmentFailed = true;
+                    round.failed.add(attemptKey(file, position));
+                }
+            }
+            return round.succeeded > 0;
+        }finally {
+            batch.clear();
+            positions.clear();
+        }
+    }
+
+    private void markReplayed(MappedByteBuffer buffer, int position){
+        buffer.putInt(position, -buffer.getInt(position));
+        replayedCount.incrementAndGet();
+    }
+
+
+    /**
+     * 失败次数达到上限, 并且第一次失败之后持久化服务有过成功(不是因为服务不可用而失败)的记录需要被搁置
+     */
+    private boolean isPoison(Attempt attempt){
+        return attempt != null && attempt.count >= MAX_REPLAY_ATTEMPTS && lastHealthyRound >= attempt.firstRound;
+    }
+
+    /**
+     * 多次重试仍然无法持久化的记录以json格式追加到parked.jsonl, 不再重试, 需要人工处理
+     */
+    private void park(File file, int position, OpRecordModelDto record) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(new File(dir, PARKED_FILE), true)) {
+            out.write(PARKED_CODEC.encode(record));
+            out.write('\n');
+        }
+        attempts.remove(attemptKey(file, position));
+        parkedCount.incrementAndGet();
+        log.error("spill record {}@{} failed {} times, parked in {}", file.getName(), position, MAX_REPLAY_ATTEMPTS, PARKED_FILE);
+    }
+
+    /**
+     * 无法解析的段重命名为.corrupt, 不再重试, 需要人工处理
+     */
+    private void quarantine(File file, CorruptSegmentException e){
+        forgetAttempts(file);
+        File corrupt = new File(file.getPath() + CORRUPT_SUFFIX);
+        if(file.renameTo(corrupt)){
+            log.error("spill segment {} is corrupted and renamed to {}", file.getName(), corrupt.getName(), e);
+        }else {
+            log.error("spill segment {} is corrupted and rename failed", file.getAbsolutePath(), e);
+        }
+    }
+
+    private static String attemptKey(File file, int position){
+        return file.getName() + "@" + position;
+    }
+
+    private void forgetAttempts(File file){
+        String prefix = file.getName() + "@";
+        attempts.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+
+    /**
+     * 解除内存映射, 否则映射在GC之前一直存在(Windows上文件无法删除).
+     *   解除之后不能再访问buffer. 无法解除时(不支持的jdk)等待GC释放
+     */
+    private static void unmap(MappedByteBuffer buffer){
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                // jdk9+
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            }catch (NoSuchMethodException e){
+                // jdk8
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if(cleaner != null){
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+                return;
+            }
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        }catch (Exception e){
+            log.debug("unmap spill segment failed, released by GC : {}", e.toString());
+        }
+    }
+
+
+    private List<File> listSegments(){
+        File[] files = dir.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if(files == null){
+            return Collections.emptyList();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private static long segmentId(File file){
+        String name = file.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+
+    /**
+     * 停止重新持久化, 并将当前段的数据刷到磁盘
+     */
+    public void shutdown(){
+        running = false;
+        replayer.interrupt();
+        synchronized (this){
+            if(active != null){
+                try {
+                    active.close();
+                } catch (IOException e) {
+                    log.error("close spill segment failed : {}", active.file.getAbsolutePath(), e);
+                }
+                active = null;
+            }
+        }
+    }
+
+
+    /**
+     * 写入溢出日志的记录数
+     */
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    /**
+     * 已经重新持久化的记录数
+     */
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+
+    /**
+     * 多次重试仍然无法持久化而被搁置的记录数
+     */
+    public long getParkedCount() {
+        return parkedCount.get();
+    }
+
+
+    /**
+     * 一轮重新持久化的结果
+     */
+    private static final class Round {
+
+        private final long number;
+
+        private int succeeded;
+
+        /**
+         * 当前段是否有记录持久化失败
+         */
+        private boolean segmentFailed;
+
+        /**
+         * 失败的记录(段名@位置)
+         */
+        private final List<String> failed = new ArrayList<>();
+
+        private Round(long number) {
+            this.number = number;
+        }
+    }
+
+    /**
+     * 一条记录重新持久化失败的次数
+     */
+    private static final class Attempt {
+
+        /**
+         * 第一次失败的轮数
+         */
+        private final long firstRound;
+
+        private int count;
+
+        private Attempt(long firstRound) {
+            this.firstRound = firstRound;
+        }
+    }
+
+    /**
+     * 段无法解析(魔数、编解码器id不合法或者记录无法解码)
+     */
+    private static final class CorruptSegmentException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        CorruptSegmentException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+
+    /**
+     * 一个内存映射的段文件
+     */
+    private static final class Segment {
+
+        private final File file;
+
+        private final RandomAccessFile raf;
+
+        private final MappedByteBuffer buffer;
+
+        private final long openedMillis = System.currentTimeMillis();
+
+        private Segment(File file, RandomAccessFile raf, MappedByteBuffer buffer) {
+            this.file = file;
+            this.raf = raf;
+            this.buffer = buffer;
+        }
+
+        static Segment open(File file, long size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                return new Segment(file, raf, buffer);
+            }catch (IOException e){
+                raf.close();
+                throw e;
+            }
+        }
+
+        void close() throws IOException {
+            buffer.force();
+            raf.close();
+            unmap(buffer);
+        }
+    }
+
+}
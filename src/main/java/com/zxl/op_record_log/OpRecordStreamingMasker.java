@@ -0,0 +1,510 @@
+package com.zxl.op_record_log;
+
+import com.alibaba.fastjson.JSON;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 流式的json脱敏.
+ *   逐个扫描json的token并按DesensitizationField的字段树进行匹配, 需要脱敏的值替换为symbol, 其余部分原样复制.
+ *   不会把整个报文解析成JSONObject, 内存占用只与嵌套的深度和字段名的长度有关, 适合MB级别的报文.
+ *
+ *   与desensitization(String, Map, String, boolean)的区别:
+ *      1. 空白、字段的顺序、数字的格式都原样保留
+ *      2. 数组中的对象(包括多层嵌套的数组)也会按下一层字段脱敏, 数组类型的字段按下标表达式匹配
+ *      3. 最外层可以是对象或数组, 值为null的元素原样保留
+ *
+ *   非线程安全, 每次脱敏使用一个新的实例, 或者使用静态的mask方法
+ */
+public final class OpRecordStreamingMasker {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Map<String, DesensitizationField> fieldMap;
+
+    /**
+     * json编码之后的symbol
+     */
+    private final String maskedValue;
+
+    private final boolean allFlg;
+
+    private Reader reader;
+
+    private Writer writer;
+
+    private final char[] in = new char[BUFFER_SIZE];
+
+    private int inPos;
+
+    private int inLimit;
+
+    /**
+     * 已经读取的字符数, 用于错误信息
+     */
+    private long offset;
+
+    private final char[] out = new char[BUFFER_SIZE];
+
+    private int outPos;
+
+    private final StringBuilder key = new StringBuilder();
+
+
+    /**
+     * @param fieldMap 需要脱敏的字段 (allFlg为true时可以为null)
+     * @param symbol 用来代替敏感信息的字符串
+     * @param allFlg 是否对所有字段进行脱敏
+     */
+    public OpRecordStreamingMasker(Map<String, DesensitizationField> fieldMap, String symbol, boolean allFlg) {
+        if(symbol == null){
+            throw new IllegalArgumentException("symbol is null!");
+        }
+        this.fieldMap = fieldMap == null ? Collections.emptyMap() : fieldMap;
+        this.maskedValue = JSON.toJSONString(symbol);
+        this.allFlg = allFlg;
+    }
+
+
+    public static String mask(String json, Map<String, DesensitizationField> fieldMap, String symbol, boolean allFlg) throws IOException {
+        StringWriter writer = new StringWriter(json.length());
+        new OpRecordStreamingMasker(fieldMap, symbol, allFlg).mask(new StringReader(json), writer);
+        return writer.toString();
+    }
+
+    /**
+     * 以UTF-8编码读取和写入, 不会关闭输入输出流
+     */
+    public static void mask(InputStream input, OutputStream output, Map<String, DesensitizationField> fieldMap, String symbol, boolean allFlg) throws IOException {
+        Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+        new OpRecordStreamingMasker(fieldMap, symbol, allFlg).mask(new InputStreamReader(input, StandardCharsets.UTF_8), writer);
+        writer.flush();
+    }
+
+
+    /**
+     * 按一个字段的脱敏规则对该字段的值(json)进行脱敏, 例如reqDtFields中@RequestBody入参对应的字段
+     * @param field 值对应的脱敏字段. 没有下一层字段时整个值替换为symbol, 为null时只校验并复制json
+     */
+    public static String mask(String json, DesensitizationField field, String symbol) throws IOException {
+        StringWriter writer = new StringWriter(json.length());
+        mask(new StringReader(json), writer, field, symbol);
+        return writer.toString();
+    }
+
+    /**
+     * 按一个字段的脱敏规则对reader中的json进行脱敏并写入writer. 不会关闭reader和writer
+     * @param field 值对应的脱敏字段. 没有下一层字段时整个值替换为symbol, 为null时只校验并复制json
+     */
+    public static void mask(Reader reader, Writer writer, DesensitizationField field, String symbol) throws IOException {
+        new OpRecordStreamingMasker(null, symbol, false).mask(reader, writer, field);
+    }
+
+
+    /**
+     * 读取reader中的json, 脱敏后写入writer. 不会关闭reader和writer
+     */
+    public void mask(Reader reader, Writer writer) throws IOException {
+        mask(reader, writer, null);
+    }
+
+    /**
+     * @param field 不为null时按该字段的脱敏规则处理最外层的值, 否则按fieldMap处理
+     */
+    private void mask(Reader reader, Writer writer, DesensitizationField field) throws IOException {
+        this.reader = reader;
+        this.writer = writer;
+        this.inPos = 0;
+        this.inLimit = 0;
+        this.offset = 0;
+        this.outPos = 0;
+        try {
+            copyWhitespace();
+            if(peek() >= 0){
+                if(field != null){
+                    processField(field);
+                }else {
+                    processValue(fieldMap, allFlg);
+                }
+                copyWhitespace();
+            }
+            if(peek() >= 0){
+                throw error("end of input");
+            }
+            flush();
+        }finally {
+            this.reader = null;
+            this.writer = null;
+        }
+    }
+
+
+    /**
+     * 按fields处理一个值: 对象按字段名匹配, 数组的每个元素按相同的fields处理, 其他值原样复制
+     * @param all 是否对象的所有字段都需要脱敏
+     */
+    private void processValue(Map<String, DesensitizationField> fields, boolean all) throws IOException {
+        int c = peek();
+        if(c == '{'){
+            processObject(fields, all);
+        }else if(c == '['){
+            write(read());
+            copyWhitespace();
+            if(peek() == ']'){
+                write(read());
+                return;
+            }
+            while (true){
+                processValue(fields, all);
+                if(endOfContainer(']')){
+                    return;
+                }
+            }
+        }else {
+            transferValue(true);
+        }
+    }
+
+    private void processObject(Map<String, DesensitizationField> fields, boolean all) throws IOException {
+        write(read());
+        copyWhitespace();
+        if(peek() == '}'){
+            write(read());
+            return;
+        }
+        while (true){
+            if(peek() != '"'){
+                throw error("field name");
+            }
+            key.setLength(0);
+            transferString(true, key);
+            copyWhitespace();
+            if(peek() != ':'){
+                throw error("':'");
+            }
+            write(read());
+            copyWhitespace();
+
+            if(all){
+                maskValue();
+            }else {
+                DesensitizationField field = fields.get(key.toString());
+                if(field == null){
+                    transferValue(true);
+                }else {
+                    processField(field);
+                }
+            }
+
+            if(endOfContainer('}')){
+                return;
+            }
+            copyWhitespace();
+        }
+    }
+
+    /**
+     * 处理匹配到的字段的值
+     */
+    private void processField(DesensitizationField field) throws IOException {
+        Map<String, DesensitizationField> next = field.getFieldMap();
+        boolean leaf = next == null || next.isEmpty();
+
+        if(field.getType() == DesensitizationField.DesensitizationFieldEnum.ARRAY && peek() == '['){
+            ArrayIndexMatcher matcher = field.getIndexMatcher() != null ? field.getIndexMatcher() : ArrayIndexMatcher.compile(field.getArrayExps());
+            write(read());
+            copyWhitespace();
+            if(peek() == ']'){
+                write(read());
+                return;
+            }
+            for(int i=0;;i++){
+                if(!matcher.matches(i) || peekLiteral("null")){
+                    transferValue(true);
+                }else if(leaf){
+                    maskValue();
+                }else {
+                    processValue(next, false);
+                }
+                if(endOfContainer(']')){
+                    return;
+                }
+            }
+        }
+
+        if(leaf){
+            maskValue();
+        }else {
+            processValue(next, false);
+        }
+    }
+
+    /**
+     * 读取元素之后的分隔符
+     * @return 是否到达容器的结尾
+     */
+    private boolean endOfContainer(char end) throws IOException {
+        copyWhitespace();
+        int c = peek();
+        if(c == ','){
+            write(read());
+            copyWhitespace();
+            return false;
+        }
+        if(c == end){
+            write(read());
+            return true;
+        }
+        throw error("',' or '" + end + "'");
+    }
+
+    private void maskValue() throws IOException {
+        for(int i=0;i<maskedValue.length();i++){
+            write(maskedValue.charAt(i));
+        }
+        transferValue(false);
+    }
+
+
+    /**
+     * 复制或跳过一个完整的值. 对象、数组不使用递归, 只记录嵌套的深度
+     * @param emit 是否写入输出
+     */
+    private void transferValue(boolean emit) throws IOException {
+        int c = peek();
+        if(c == '"'){
+            transferString(emit, null);
+            return;
+        }
+        if(c != '{' && c != '['){
+            transferLiteral(emit);
+            return;
+        }
+        int depth = 0;
+        do {
+            c = peek();
+            if(c < 0){
+                throw error("end of container");
+            }
+            if(c == '"'){
+                transferString(emit, null);
+                continue;
+            }
+            read();
+            if(emit){
+                write(c);
+            }
+            if(c == '{' || c == '['){
+                depth++;
+            }else if(c == '}' || c == ']'){
+                depth--;
+            }
+        }while (depth > 0);
+    }
+
+    /**
+     * 复制或跳过一个字符串
+     * @param decoded 不为null时写入解码之后的字符串
+     */
+    private void transferString(boolean emit, StringBuilder decoded) throws IOException {
+        int c = read();
+        if(emit){
+            write(c);
+        }
+        while (true){
+            c = read();
+            if(c < 0){
+                throw error("'\"'");
+            }
+            if(emit){
+                write(c);
+            }
+            if(c == '"'){
+                return;
+            }
+            if(c != '\\'){
+                if(decoded != null){
+                    decoded.append((char) c);
+                }
+                continue;
+            }
+
+            int escaped = read();
+            if(escaped < 0){
+                throw error("escape character");
+            }
+            if(emit){
+                write(escaped);
+            }
+            if(escaped != 'u'){
+                if(decoded != null){
+                    decoded.append(unescape(escaped));
+                }
+                continue;
+            }
+            int code = 0;
+            for(int i=0;i<4;i++){
+                int hex = read();
+                int digit = Character.digit(hex, 16);
+                if(hex < 0 || digit < 0){
+                    throw error("hex digit");
+                }
+                if(emit){
+                    write(hex);
+                }
+                code = (code << 4) | digit;
+            }
+            if(decoded != null){
+                decoded.append((char) code);
+            }
+        }
+    }
+
+    private static char unescape(int c){
+        switch (c){
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            default:
+                return (char) c;
+        }
+    }
+
+    /**
+     * 复制或跳过数字、true、false、null
+     */
+    private void transferLiteral(boolean emit) throws IOException {
+        int c = peek();
+        if(c < 0 || isDelimiter(c)){
+            throw error("value");
+        }
+        while (c >= 0 && !isDelimiter(c)){
+            read();
+            if(emit){
+                write(c);
+            }
+            c = peek();
+        }
+    }
+
+    private static boolean isDelimiter(int c){
+        return c == ',' || c == '}' || c == ']' || c == ':' || isWhitespace(c);
+    }
+
+    private static boolean isWhitespace(int c){
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private void copyWhitespace() throws IOException {
+        int c = peek();
+        while (isWhitespace(c)){
+            write(read());
+            c = peek();
+        }
+    }
+
+    /**
+     * 当前位置是否是指定的字面量, 不消耗输入
+     */
+    private boolean peekLiteral(String literal) throws IOException {
+        if(peek() != literal.charAt(0)){
+            return false;
+        }
+        // 字面量比缓冲区短, 必要时把剩余的字符移动到缓冲区的开头
+        if(inLimit - inPos < literal.length() + 1){
+            compact(literal.length() + 1);
+        }
+        int end = inPos + literal.length();
+        if(end > inLimit){
+            return false;
+        }
+        for(int i=0;i<literal.length();i++){
+            if(in[inPos + i] != literal.charAt(i)){
+                return false;
+            }
+        }
+        return end == inLimit || isDelimiter(in[end]);
+    }
+
+
+    private int peek() throws IOException {
+        if(inPos >= inLimit && !fill()){
+            return -1;
+        }
+        return in[inPos];
+    }
+
+    private int read() throws IOException {
+        if(inPos >= inLimit && !fill()){
+            return -1;
+        }
+        offset++;
+        return in[inPos++];
+    }
+
+    private boolean fill() throws IOException {
+        int n = reader.read(in, 0, in.length);
+        if(n <= 0){
+            inPos = 0;
+            inLimit = 0;
+            return false;
+        }
+        inPos = 0;
+        inLimit = n;
+        return true;
+    }
+
+    /**
+     * 把未读取的字符移动到缓冲区的开头, 并读取到至少有min个字符或者输入结束
+     */
+    private void compact(int min) throws IOException {
+        int remaining = inLimit - inPos;
+        System.arraycopy(in, inPos, in, 0, remaining);
+        inPos = 0;
+        inLimit = remaining;
+        while (inLimit < min){
+            int n = reader.read(in, inLimit, in.length - inLimit);
+            if(n <= 0){
+                return;
+            }
+            inLimit += n;
+        }
+    }
+
+    private void write(int c) throws IOException {
+        if(outPos == out.length){
+            flush();
+        }
+        out[outPos++] = (char) c;
+    }
+
+    private void flush() throws IOException {
+        writer.write(out, 0, outPos);
+        outPos = 0;
+    }
+
+    private IOException error(String expected) throws IOException {
+        int c = peek();
+        String actual = c < 0 ? "end of input" : "'" + (char) c + "'";
+        return new IOException("malformed json : expect " + expected + " but " + actual + " at " + offset);
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.zxl.op_record_log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶.
+ *   使用GCRA算法: 只保存下一个令牌的理论到达时间, 获取令牌时通过CAS推进该时间,
+ *   允许的突发量为1秒内的令牌数
+ */
+public class OpRecordTokenBucket {
+
+    private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 产生一个令牌的间隔(纳秒)
+     */
+    private final long intervalNanos;
+
+    /**
+     * 下一个令牌的理论到达时间
+     */
+    private final AtomicLong theoreticalArrival;
+
+
+    /**
+     * @param permitsPerSecond 每秒产生的令牌数, 必须大于0
+     */
+    public OpRecordTokenBucket(int permitsPerSecond) {
+        if(permitsPerSecond <= 0){
+            throw new IllegalArgumentException("permitsPerSecond must be greater than 0 !");
+        }
+        this.intervalNanos = Math.max(BURST_NANOS / permitsPerSecond, 1);
+        this.theoreticalArrival = new AtomicLong(System.nanoTime() - BURST_NANOS);
+    }
+
+
+    /**
+     * 尝试获取一个令牌, 不阻塞
+     */
+    public boolean tryAcquire(){
+        long now = System.nanoTime();
+        while (true){
+            long tat = theoreticalArrival.get();
+            long next = Math.max(tat, now - BURST_NANOS) + intervalNanos;
+            if(next - now > 0){
+                return false;
+            }
+            if(theoreticalArrival.compareAndSet(tat, next)){
+                return true;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.zxl.op_record_log;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryOpRecordCodecTest {
+
+    @Test
+    void roundTripWithoutOptionalFields() {
+        OpRecordModelDto dto = new OpRecordModelDto();
+        dto.setElapsedTime(-3);
+
+        OpRecordModelDto decoded = new BinaryOpRecordCodec().decode(new BinaryOpRecordCodec().encode(dto));
+
+        assertEquals(dto, decoded);
+        assertNull(decoded.getId());
+        assertNull(decoded.getSuccess());
+        assertNull(decoded.getErrorType());
+        assertNull(decoded.getErrorOccurrence());
+    }
+
+    @Test
+    void roundTripWithAllFields() {
+        OpRecordModelDto dto = fullRecord();
+
+        OpRecordModelDto decoded = new BinaryOpRecordCodec().decode(new BinaryOpRecordCodec().encode(dto));
+
+        assertEquals(dto, decoded);
+    }
+
+    @Test
+    void roundTripWithPartialErrorFields() {
+        OpRecordModelDto dto = record("/order/create");
+        dto.setErrorFingerprint("a1b2c3");
+        dto.setErrorOccurrence(5L);
+
+        OpRecordModelDto decoded = new BinaryOpRecordCodec().decode(new BinaryOpRecordCodec().encode(dto));
+
+        assertEquals(dto, decoded);
+        assertNull(decoded.getErrorType());
+        assertNull(decoded.getErrorStack());
+    }
+
+    @Test
+    void dictionaryIsReusedAcrossRecords() {
+        BinaryOpRecordCodec encoder = new BinaryOpRecordCodec();
+        BinaryOpRecordCodec decoder = new BinaryOpRecordCodec();
+        OpRecordModelDto first = fullRecord();
+        OpRecordModelDto second = fullRecord();
+        second.setId(2L);
+
+        byte[] firstBytes = encoder.encode(first);
+        byte[] secondBytes = encoder.encode(second);
+
+        // 第二条记录的元数据字符串只写入字典id
+        assertTrue(secondBytes.length < firstBytes.length);
+        assertEquals(first, decoder.decode(firstBytes));
+        assertEquals(second, decoder.decode(secondBytes));
+    }
+
+    @Test
+    void longStringIsNotPutInDictionary() {
+        BinaryOpRecordCodec encoder = new BinaryOpRecordCodec();
+        BinaryOpRecordCodec decoder = new BinaryOpRecordCodec();
+        StringBuilder url = new StringBuilder();
+        for(int i=0;i<300;i++){
+            url.append('u');
+        }
+        OpRecordModelDto dto = record(url.toString());
+
+        assertEquals(dto, decoder.decode(encoder.encode(dto)));
+        assertEquals(dto, decoder.decode(encoder.encode(dto)));
+    }
+
+    @Test
+    void resetAtSegmentRoll() {
+        BinaryOpRecordCodec encoder = new BinaryOpRecordCodec();
+        encoder.encode(record("/order/create"));
+
+        // 新段: 编码端重置后, 新的解码器可以独立解码该段
+        encoder.reset();
+        OpRecordModelDto first = record("/order/cancel");
+        OpRecordModelDto second = record("/order/cancel");
+        byte[] firstBytes = encoder.encode(first);
+        byte[] secondBytes = encoder.encode(second);
+
+        BinaryOpRecordCodec decoder = new BinaryOpRecordCodec();
+        assertEquals(first, decoder.decode(firstBytes));
+        assertEquals(second, decoder.decode(secondBytes));
+    }
+
+    @Test
+    void decoderWithoutResetFails() {
+        BinaryOpRecordCodec encoder = new BinaryOpRecordCodec();
+        BinaryOpRecordCodec decoder = new BinaryOpRecordCodec();
+        decoder.decode(encoder.encode(record("/order/create")));
+
+        encoder.reset();
+        byte[] bytes = encoder.encode(record("/order/cancel"));
+
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(bytes));
+
+        decoder.reset();
+        assertEquals(record("/order/cancel"), decoder.decode(bytes));
+    }
+
+    @Test
+    void unsupportedVersion() {
+        byte[] bytes = new BinaryOpRecordCodec().encode(record("/order/create"));
+        bytes[0] = 2;
+
+        assertThrows(IllegalArgumentException.class, () -> new BinaryOpRecordCodec().decode(bytes));
+    }
+
+
+    private static OpRecordModelDto record(String reqUrl){
+        OpRecordModelDto dto = new OpRecordModelDto();
+        dto.setOpAccount("admin");
+        dto.setReqFunc("创建订单");
+        dto.setReqUrl(reqUrl);
+        dto.setReqMethod("POST");
+        dto.setReqData("{\"orderNo\":\"A001\"}");
+        dto.setRespData("{\"code\":0}");
+        dto.setElapsedTime(12);
+        return dto;
+    }
+
+    private static OpRecordModelDto fullRecord(){
+        OpRecordModelDto dto = record("/order/create");
+        dto.setId(1L);
+        dto.setSuccess(Boolean.FALSE);
+        dto.setOpTime(new Date(1600000000123L));
+        dto.setReqSerializeNanos(1500L);
+        dto.setProceedNanos(3000000L);
+        dto.setRespSerializeNanos(900L);
+        dto.setQueueNanos(-1L);
+        dto.setDegradeLevel(OpRecordDegradeLevel.values()[OpRecordDegradeLevel.values().length - 1]);
+        dto.setPayloadCodec(OpRecordPayloadCodec.values()[OpRecordPayloadCodec.values().length - 1]);
+        dto.setReqDataSize(18);
+        dto.setRespDataSize(10);
+        dto.setAggregateCount(100L);
+        dto.setAggregateErrorCount(3L);
+        dto.setElapsedP99(80L);
+        dto.setElapsedMax(Long.MAX_VALUE);
+        dto.setErrorType("java.lang.IllegalStateException");
+        dto.setErrorMessage("订单状态不正确");
+        dto.setErrorFingerprint("a1b2c3");
+        dto.setErrorStack("java.lang.IllegalStateException: 订单状态不正确\n\tat OrderService.create(OrderService.java:10)");
+        dto.setErrorOccurrence(7L);
+        return dto;
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.zxl.op_record_log;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpRecordAggregatorTest {
+
+    @Test
+    void schedulerStartsOnFirstRecord() throws Exception {
+        List<OpRecordModelDto> summaries = new ArrayList<>();
+        OpRecordAggregator aggregator = new OpRecordAggregator(60000, (plan, dto) -> summaries.add(dto));
+        assertFalse(aggregator.isStarted());
+        assertFalse(aggregatorThreadAlive());
+
+        OpRecordMethodPlan plan = OpRecordAspect.getMethodPlan(OpRecordAggregatorTest.class.getDeclaredMethod("api"));
+        aggregator.record(plan, "admin", "/api", "GET", 10, false);
+        aggregator.record(plan, "admin", "/api", "GET", 30, true);
+        assertTrue(aggregator.isStarted());
+        assertTrue(aggregatorThreadAlive());
+
+        aggregator.shutdown();
+
+        assertEquals(1, summaries.size());
+        assertEquals(2L, summaries.get(0).getAggregateCount());
+        assertEquals(1L, summaries.get(0).getAggregateErrorCount());
+    }
+
+    @Test
+    void shutdownWithoutRecords() throws Exception {
+        OpRecordAggregator aggregator = new OpRecordAggregator(60000, (plan, dto) -> { });
+        aggregator.shutdown();
+
+        OpRecordMethodPlan plan = OpRecordAspect.getMethodPlan(OpRecordAggregatorTest.class.getDeclaredMethod("api"));
+        aggregator.record(plan, "admin", "/api", "GET", 10, false);
+        // 关闭之后不再创建后台线程
+        assertFalse(aggregator.isStarted());
+    }
+
+
+    @OpRecordAnnotation(aggregate = true)
+    void api(){
+    }
+
+    private static boolean aggregatorThreadAlive(){
+        for(Thread thread : Thread.getAllStackTraces().keySet()){
+            if(thread.getName().equals("op-record-aggregator") && thread.isAlive()){
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.zxl.op_record_log;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OpRecordAsyncSupportTest {
+
+    @Test
+    void completionErrorDoesNotReachFuture() {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+        OpRecordAsyncSupport.attach(OpRecordAsyncSupport.Kind.COMPLETION_STAGE, future, null, 0, (value, error) -> {
+            calls.incrementAndGet();
+            throw new StackOverflowError();
+        });
+        AtomicReference<Throwable> downstream = new AtomicReference<>();
+        CompletableFuture<String> next = future.whenComplete((value, error) -> downstream.set(error));
+
+        future.complete("ok");
+
+        assertEquals("ok", next.join());
+        assertEquals(null, downstream.get());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void completionErrorDoesNotReachMono() {
+        AtomicReference<Object> recorded = new AtomicReference<>();
+        @SuppressWarnings("unchecked")
+        Mono<String> mono = (Mono<String>) OpRecordAsyncSupport.attach(OpRecordAsyncSupport.Kind.MONO, Mono.just("ok"), null, 0, (value, error) -> {
+            recorded.set(value);
+            throw new StackOverflowError();
+        });
+
+        assertEquals("ok", mono.block());
+        assertEquals("ok", recorded.get());
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.zxl.op_record_log;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpRecordDispatcherTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void spillWithoutSpillLogIsRejected() {
+        OpRecordPersistenceService service = dto -> { };
+
+        assertThrows(Exception.class, () -> new OpRecordDispatcher(service, 1, 1, OpRecordOverflowPolicy.SPILL, 1, 0, null, false));
+    }
+
+    @Test
+    void spillDoesNotBlockWhenQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        OpRecordPersistenceService service = dto -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        OpRecordSpillLog spillLog = new OpRecordSpillLog(dir, 64 * 1024, service, 10, 60000, OpRecordCodec.Type.BINARY);
+        OpRecordDispatcher dispatcher = new OpRecordDispatcher(service, 1, 1, OpRecordOverflowPolicy.SPILL, 1, 0, spillLog, false);
+        try {
+            long start = System.nanoTime();
+            for(int i=0;i<100;i++){
+                dispatcher.dispatch(new OpRecordModelDto());
+            }
+
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            assertTrue(spillLog.getSpilledCount() > 0);
+        }finally {
+            release.countDown();
+            dispatcher.shutdown(1000);
+            spillLog.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.zxl.op_record_log;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpRecordIdGeneratorTest {
+
+    private static final int THREADS = 8;
+
+    private static final int IDS_PER_THREAD = 50000;
+
+    @Test
+    void concurrentIdsAreUniqueAndMonotonicPerThread() throws Exception {
+        OpRecordIdGenerator generator = new OpRecordIdGenerator(7);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for(int t=0;t<THREADS;t++){
+                Callable<long[]> task = () -> {
+                    start.await();
+                    long[] ids = new long[IDS_PER_THREAD];
+                    for(int i=0;i<ids.length;i++){
+                        ids[i] = generator.nextId();
+                    }
+                    return ids;
+                };
+                futures.add(executor.submit(task));
+            }
+            start.countDown();
+
+            Set<Long> all = new HashSet<>(THREADS * IDS_PER_THREAD * 2);
+            for(Future<long[]> future : futures){
+                long[] ids = future.get();
+                for(int i=0;i<ids.length;i++){
+                    if(i > 0){
+                        assertTrue(ids[i] > ids[i - 1], "ids of one thread must be increasing");
+                    }
+                    assertTrue(all.add(ids[i]), "duplicate id " + ids[i]);
+                }
+            }
+            assertEquals(THREADS * IDS_PER_THREAD, all.size());
+        }finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void timestampAndNodeIdRoundTrip() throws Exception {
+        OpRecordIdGenerator generator = new OpRecordIdGenerator(OpRecordIdGenerator.MAX_NODE_ID);
+        long before = System.currentTimeMillis();
+        long id = generator.nextId();
+        long after = System.currentTimeMillis();
+
+        assertTrue(id > 0);
+        assertEquals(OpRecordIdGenerator.MAX_NODE_ID, OpRecordIdGenerator.nodeIdOf(id));
+        long timestamp = OpRecordIdGenerator.timestampOf(id);
+        assertTrue(timestamp >= before && timestamp <= after, "timestamp " + timestamp + " is not in [" + before + "," + after + "]");
+
+        assertEquals(0, OpRecordIdGenerator.nodeIdOf(new OpRecordIdGenerator(0).nextId()));
+    }
+
+    @Test
+    void sequenceOverflowKeepsNodeId() throws Exception {
+        OpRecordIdGenerator generator = new OpRecordIdGenerator(5);
+        long last = generator.nextId();
+        // 超过一毫秒4096个id时序列号进位到时间戳, 不能影响节点id
+        for(int i=0;i<10000;i++){
+            long id = generator.nextId();
+            assertTrue(id > last);
+            assertEquals(5, OpRecordIdGenerator.nodeIdOf(id));
+            last = id;
+        }
+    }
+
+    @Test
+    void invalidNodeId() {
+        assertThrows(Exception.class, () -> new OpRecordIdGenerator(-1));
+        assertThrows(Exception.class, () -> new OpRecordIdGenerator(OpRecordIdGenerator.MAX_NODE_ID + 1));
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.zxl.op_record_log;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.annotation.JSONType;
+import com.alibaba.fastjson.serializer.JSONSerializer;
+import com.alibaba.fastjson.serializer.ObjectSerializer;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpRecordJsonWriterTest {
+
+    private static final int MAX_BYTES = 100;
+
+    /**
+     * 截断时最外层数组和对象的结束符号
+     */
+    private static final int CLOSING_CHARS = 2;
+
+    @Test
+    void oversizedStringIsTruncated() {
+        String json = write(repeat('a', 10000));
+
+        assertTrue(json.length() <= MAX_BYTES + CLOSING_CHARS, json);
+        String data = JSON.parseArray(json).getJSONObject(0).getString("data");
+        assertTrue(data.startsWith("aaaa"));
+        assertTrue(data.endsWith(OpRecordJsonWriter.TRUNCATED_MARKER));
+    }
+
+    @Test
+    void oversizedBytesAreReplaced() {
+        String json = write(new byte[10000]);
+
+        assertTrue(json.length() <= MAX_BYTES + CLOSING_CHARS, json);
+        assertEquals(OpRecordJsonWriter.TRUNCATED_MARKER, JSON.parseArray(json).getJSONObject(0).getString("data"));
+    }
+
+    @Test
+    void oversizedOpaqueValueIsReplaced() {
+        String json = write(new Opaque(10000));
+
+        assertTrue(json.length() <= MAX_BYTES + CLOSING_CHARS, json);
+        assertEquals(OpRecordJsonWriter.TRUNCATED_MARKER, JSON.parseArray(json).getJSONObject(0).getString("data"));
+    }
+
+    @Test
+    void smallLeavesAreWrittenWhole() {
+        assertEquals("[{\"data\":\"abc\"}]", write("abc"));
+        assertEquals("[{\"data\":\"xxxxx\"}]", write(new Opaque(5)));
+    }
+
+    @Test
+    void oversizedStringInCollection() {
+        String json = write(Collections.singletonList(repeat('b', 10000)));
+
+        JSONArray data = JSON.parseArray(json).getJSONObject(0).getJSONArray("data");
+        assertTrue(data.getString(0).endsWith(OpRecordJsonWriter.TRUNCATED_MARKER));
+        assertTrue(json.length() <= MAX_BYTES + CLOSING_CHARS + 1, json);
+    }
+
+    @Test
+    void rawBodyIsWrittenFromCachedBytes() {
+        String json = write(rawBody("{\"orderNo\":\"A001\"}"));
+
+        assertEquals("[{\"data\":{\"orderNo\":\"A001\"}}]", json);
+    }
+
+    @Test
+    void oversizedRawBodyIsTruncated() {
+        String json = write(rawBody("{\"remark\":\"" + repeat('c', 10000) + "\"}"));
+
+        assertTrue(json.length() <= MAX_BYTES + CLOSING_CHARS, json);
+        assertEquals(OpRecordJsonWriter.TRUNCATED_MARKER, JSON.parseArray(json).getJSONObject(0).getString("data"));
+    }
+
+    @Test
+    void malformedRawBodyIsReplaced() {
+        assertEquals("[{\"data\":\"*\"}]", write(rawBody("{\"orderNo\":")));
+    }
+
+
+    private static String write(Object value){
+        try(OpRecordJsonWriter writer = new OpRecordJsonWriter("*", new OpRecordLimit(0, 0, MAX_BYTES))){
+            writer.startArray();
+            writer.processDtField(DesensitizationLevel.NO, null, "data", value);
+            writer.endArray();
+            return writer.toString();
+        }
+    }
+
+    private static OpRecordRawBody rawBody(String json){
+        return new OpRecordRawBody(json.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(char c, int count){
+        StringBuilder builder = new StringBuilder(count);
+        for(int i=0;i<count;i++){
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+
+    /**
+     * 使用自定义序列化器, 无法预先知道长度的值
+     */
+    @JSONType(serializer = OpaqueSerializer.class)
+    static class Opaque {
+
+        private final int length;
+
+        Opaque(int length) {
+            this.length = length;
+        }
+    }
+
+    public static class OpaqueSerializer implements ObjectSerializer {
+
+        @Override
+        public void write(JSONSerializer serializer, Object object, Object fieldName, Type fieldType, int features) {
+            serializer.write(repeat('x', ((Opaque) object).length));
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.zxl.op_record_log;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+class OpRecordModelDtoTest {
+
+    @Test
+    void copyContainsEveryField() throws Exception {
+        OpRecordModelDto dto = new OpRecordModelDto();
+        long value = 1;
+        // 为每个字段设置不同的非默认值, 新增字段没有加入copy()时测试失败
+        for(Field field : OpRecordModelDto.class.getDeclaredFields()){
+            if(Modifier.isStatic(field.getModifiers())){
+                continue;
+            }
+            field.setAccessible(true);
+            field.set(dto, valueOf(field.getType(), value++));
+        }
+
+        OpRecordModelDto copy = dto.copy();
+
+        assertNotSame(dto, copy);
+        assertEquals(dto, copy);
+        for(Field field : OpRecordModelDto.class.getDeclaredFields()){
+            if(!Modifier.isStatic(field.getModifiers())){
+                field.setAccessible(true);
+                assertNotNull(field.get(copy), field.getName());
+            }
+        }
+    }
+
+    private static Object valueOf(Class<?> type, long value){
+        if(type == Long.class || type == long.class){
+            return value;
+        }
+        if(type == Integer.class){
+            return (int) value;
+        }
+        if(type == Boolean.class){
+            return Boolean.TRUE;
+        }
+        if(type == String.class){
+            return "v" + value;
+        }
+        if(type == Date.class){
+            return new Date(value);
+        }
+        if(type.isEnum()){
+            Object[] constants = type.getEnumConstants();
+            return constants[(int) (value % constants.length)];
+        }
+        throw new IllegalArgumentException("unsupported field type " + type);
+    }
+
+}
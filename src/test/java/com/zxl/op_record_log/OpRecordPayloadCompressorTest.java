@@ -0,0 +1,106 @@
+package com.zxl.op_record_log;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.lang.reflect.Method;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OpRecordPayloadCompressorTest {
+
+    private static final String PAYLOAD = "[{\"req\":{\"orderNo\":\"A001\",\"amount\":100,\"remark\":\"remark of the order\"}},"
+            + "{\"req\":{\"orderNo\":\"A002\",\"amount\":200,\"remark\":\"remark of the order\"}}]";
+
+    @TempDir
+    File dir;
+
+    @Test
+    void roundTripWithCurrentDictionary() throws Exception {
+        Method method = Api.class.getMethod("createV1", OrderV1.class);
+        OpRecordPayloadCompressor compressor = new OpRecordPayloadCompressor(1, true, 0);
+        try {
+            OpRecordModelDto dto = compressed(compressor, method);
+
+            assertEquals(OpRecordDictionaryStore.idOf(OpRecordPayloadCompressor.dictionary(method)),
+                    OpRecordPayloadDecoder.dictionaryIdOf(dto.getReqData()));
+            assertEquals(PAYLOAD, OpRecordPayloadDecoder.decodeReqData(dto, method));
+        }finally {
+            compressor.shutdown();
+        }
+    }
+
+    @Test
+    void oldRecordsAreDecodedAfterSignatureChange() throws Exception {
+        Method v1 = Api.class.getMethod("createV1", OrderV1.class);
+        // 同一个接口修改了入参的字段之后
+        Method v2 = Api.class.getMethod("createV2", OrderV2.class);
+        OpRecordDictionaryStore store = new OpRecordDictionaryStore(dir);
+        OpRecordPayloadCompressor compressor = new OpRecordPayloadCompressor(1, true, 0, store);
+        try {
+            OpRecordModelDto dto = compressed(compressor, v1);
+
+            assertThrows(Exception.class, () -> OpRecordPayloadDecoder.decodeReqData(dto, v2));
+            assertEquals(PAYLOAD, OpRecordPayloadDecoder.decodeReqData(dto, v2, store));
+            // 新的进程只通过目录读取字典
+            assertEquals(PAYLOAD, OpRecordPayloadDecoder.decodeReqData(dto, null, new OpRecordDictionaryStore(dir)));
+        }finally {
+            compressor.shutdown();
+        }
+    }
+
+    @Test
+    void deflateWithoutDictionary() throws Exception {
+        OpRecordPayloadCompressor compressor = new OpRecordPayloadCompressor(1, false, 0);
+        OpRecordModelDto dto = compressed(compressor, Api.class.getMethod("createV1", OrderV1.class));
+        compressor.shutdown();
+
+        assertNull(OpRecordPayloadDecoder.dictionaryIdOf(dto.getReqData()));
+        assertEquals(PAYLOAD, OpRecordPayloadDecoder.decodeReqData(dto, null));
+    }
+
+    @Test
+    void compressAfterShutdown() throws Exception {
+        OpRecordPayloadCompressor compressor = new OpRecordPayloadCompressor(1, false, 0);
+        compressor.shutdown();
+
+        assertNotNull(compressor.compress(Api.class.getMethod("createV1", OrderV1.class), PAYLOAD));
+    }
+
+
+    private static OpRecordModelDto compressed(OpRecordPayloadCompressor compressor, Method method){
+        String data = compressor.compress(method, PAYLOAD);
+        assertNotNull(data);
+        OpRecordModelDto dto = new OpRecordModelDto();
+        dto.setReqData(data);
+        dto.setReqDataSize(PAYLOAD.length());
+        dto.setPayloadCodec(compressor.getCodec());
+        return dto;
+    }
+
+
+    interface Api {
+
+        void createV1(OrderV1 req);
+
+        void createV2(OrderV2 req);
+    }
+
+    static class OrderV1 {
+        private String orderNo;
+        private long amount;
+        private String remark;
+    }
+
+    static class OrderV2 {
+        private String orderNo;
+        private long amount;
+        private String remark;
+        private String channel;
+    }
+
+}